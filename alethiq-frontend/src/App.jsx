@@ -1,5 +1,6 @@
 import React, { useState, useRef, useEffect, useMemo, createContext, useContext } from "react";
 import { useStream } from "./hooks/useStream";
+import { useChatEvents } from "./hooks/useChatEvents";
 import { useTypewriter } from "./hooks/useTypewriter";
 import ReactMarkdown from "react-markdown";
 import { motion, AnimatePresence } from "framer-motion";
@@ -489,6 +490,9 @@ function App() {
 
   //  1. NEW: Track Thread ID to support continuous chatting
   const [currentThreadId, setCurrentThreadId] = useState(null);
+
+  // Long chats come with their newest bucket of messages only; this is the next older bucket (-1: none)
+  const [olderBucket, setOlderBucket] = useState(-1);
   
   //  2. NEW: Track last query to save it later
   const [lastQuery, setLastQuery] = useState("");
@@ -520,6 +524,24 @@ function App() {
 
   useEffect(() => { fetchHistory(); }, [user, token, API_BASE]);
 
+  // Keeps the sidebar current from the server's chat-list deltas instead of re-fetching every chat
+  const applyChatDelta = (delta) => {
+    setThreads(prev => {
+      const existing = prev.find(t => t.id === delta.chatId);
+      if (delta.type === "chat.title") {
+        return existing ? prev.map(t => t.id === delta.chatId ? { ...t, title: delta.title } : t) : prev;
+      }
+      // chat.created / chat.message: newest activity goes to the top
+      const updated = existing
+        ? { ...existing, title: delta.title, messageCount: delta.messageCount, lastActivityAt: delta.lastActivityAt }
+        : { id: delta.chatId, title: delta.title, messages: [], messageCount: delta.messageCount, lastActivityAt: delta.lastActivityAt };
+      return [updated, ...prev.filter(t => t.id !== delta.chatId)];
+    });
+  };
+
+  // Deltas sent while the stream was down are gone, so a reconnect re-fetches the list once
+  const chatEventsConnected = useChatEvents(API_BASE, user, token, applyChatDelta, fetchHistory);
+
   // 🟢 3. UPDATED: Save to History Function (Now sends conversationId)
   const saveToHistory = async (userQ, aiA) => {
     if (!token) return;
@@ -543,23 +565,56 @@ function App() {
             if (data.conversationId) {
                 setCurrentThreadId(data.conversationId);
             }
-            fetchHistory(); // Refresh sidebar
+            // The chat-list stream brings the change; only re-fetch without it
+            if (!chatEventsConnected) fetchHistory();
         }
     } catch (e) {
         console.error("Save failed:", e);
     }
   };
 
-  const handleLoadThread = (thread) => {
+  const toHistoryItems = (messages) => messages.map(msg => ({
+    type: msg.role === "USER" ? "user" : "ai",
+    content: msg.content
+  }));
+
+  const handleLoadThread = async (thread) => {
     setChatHistory([]); 
     setCurrentThreadId(thread.id); //  RESUME THIS THREAD
-
-    const formattedMessages = thread.messages.map(msg => ({
-      type: msg.role === "USER" ? "user" : "ai",
-      content: msg.content
-    }));
-    setChatHistory(formattedMessages);
+    setOlderBucket(thread.bucketed ? thread.latestBucket - 1 : -1);
+    setChatHistory(toHistoryItems(thread.messages || []));
     if(isMobile) setIsSidebarOpen(false);
+
+    // Threads updated by deltas carry no messages; the newest bucket comes from /messages
+    try {
+        const res = await fetch(`${API_BASE}/api/chat/${thread.id}/messages`, {
+            headers: { Authorization: `Bearer ${token}` }
+        });
+        if (res.ok) {
+            const page = await res.json();
+            setChatHistory(toHistoryItems(page.messages));
+            setOlderBucket(page.bucket - 1);
+        }
+    } catch (e) {
+        console.error("Thread fetch error:", e);
+    }
+  };
+
+  // Pages one bucket further back through /messages and puts it above what is shown
+  const loadEarlierMessages = async () => {
+    if (olderBucket < 0 || !currentThreadId) return;
+    try {
+        const res = await fetch(`${API_BASE}/api/chat/${currentThreadId}/messages?bucket=${olderBucket}`, {
+            headers: { Authorization: `Bearer ${token}` }
+        });
+        if (res.ok) {
+            const page = await res.json();
+            setChatHistory(prev => [...toHistoryItems(page.messages), ...prev]);
+            setOlderBucket(page.bucket - 1);
+        }
+    } catch (e) {
+        console.error("Earlier messages fetch error:", e);
+    }
   };
 
   //  FETCH SUGGESTIONS FROM PYTHON DIRECTLY
@@ -615,6 +670,7 @@ function App() {
     setChatHistory([]); 
     setQuery(""); 
     setCurrentThreadId(null);
+    setOlderBucket(-1);
     stopStream(); 
   };
 
@@ -789,6 +845,11 @@ function App() {
            {hasHistory && (
              <div className="w-full max-w-3xl mx-auto px-4 md:px-6 pt-32 pb-48">
                <div className="space-y-20">
+                 {olderBucket >= 0 && (
+                   <button onClick={loadEarlierMessages} className="w-full text-xs text-zinc-500 hover:text-zinc-300 font-mono tracking-widest uppercase">
+                     Load earlier messages
+                   </button>
+                 )}
                  {chatHistory.map((msg, idx) => (
                    <div key={idx} className="group">
                        {msg.type === 'user' ? (
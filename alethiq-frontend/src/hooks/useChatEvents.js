@@ -0,0 +1,77 @@
+import { useState, useEffect, useRef } from "react";
+
+// Live chat-list deltas from /api/chat/user/{id}/events (chat.created, chat.title, chat.message).
+// EventSource cannot send the Bearer header the backend needs, so this reads the SSE stream with fetch.
+// onDelta gets every delta; onReconnect runs after the stream had to be re-opened, since deltas sent
+// while it was down are lost and the caller should re-fetch the list once.
+export const useChatEvents = (API_BASE, user, token, onDelta, onReconnect) => {
+  const [connected, setConnected] = useState(false);
+  const onDeltaRef = useRef(onDelta);
+  const onReconnectRef = useRef(onReconnect);
+  onDeltaRef.current = onDelta;
+  onReconnectRef.current = onReconnect;
+
+  useEffect(() => {
+    if (!user || !user.id || !token) return;
+    const controller = new AbortController();
+    let retryDelay = 1000;
+    let opened = false;
+
+    const dispatch = (block) => {
+      // One SSE event: "event:" and "data:" lines; comment lines (":keepalive") are skipped
+      const data = block.split("\n")
+        .filter(line => line.startsWith("data:"))
+        .map(line => line.slice(5).trimStart())
+        .join("\n");
+      if (!data) return;
+      try {
+        onDeltaRef.current(JSON.parse(data));
+      } catch (e) {
+        console.warn("Bad chat event:", e);
+      }
+    };
+
+    const connect = async () => {
+      while (!controller.signal.aborted) {
+        try {
+          const res = await fetch(`${API_BASE}/api/chat/user/${user.id}/events`, {
+            headers: { Authorization: `Bearer ${token}`, Accept: "text/event-stream" },
+            signal: controller.signal
+          });
+          if (!res.ok) throw new Error(res.statusText || "Chat events error");
+
+          setConnected(true);
+          if (opened) onReconnectRef.current?.();
+          opened = true;
+          retryDelay = 1000;
+
+          const reader = res.body.getReader();
+          const decoder = new TextDecoder();
+          let buffer = "";
+          while (true) {
+            const { done, value } = await reader.read();
+            if (done) break;
+            buffer += decoder.decode(value, { stream: true }).replace(/\r\n/g, "\n");
+            const blocks = buffer.split("\n\n");
+            buffer = blocks.pop();
+            blocks.forEach(dispatch);
+          }
+        } catch (e) {
+          if (controller.signal.aborted) return;
+          console.warn("Chat events disconnected:", e.message);
+        }
+        setConnected(false);
+        await new Promise(resolve => setTimeout(resolve, retryDelay));
+        retryDelay = Math.min(retryDelay * 2, 30000);
+      }
+    };
+
+    connect();
+    return () => {
+      controller.abort();
+      setConnected(false);
+    };
+  }, [API_BASE, user, token]);
+
+  return connected;
+};
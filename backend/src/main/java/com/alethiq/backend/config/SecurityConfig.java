@@ -75,6 +75,7 @@ public class SecurityConfig {
                                 "/api/auth/**",
                                 "/health",
                                 "/api/chat/stream",
+                                "/api/chat/stream/*",
                                 "/get-suggestions",
                                 "/api/chat/version"
                         ).permitAll()
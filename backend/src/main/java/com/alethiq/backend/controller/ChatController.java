@@ -7,11 +7,17 @@ import com.alethiq.backend.entity.User;
 import com.alethiq.backend.repository.ChatRepository;
 import com.alethiq.backend.repository.UserRepository;
 import com.alethiq.backend.service.AiStreamService;
+import com.alethiq.backend.service.BatchQueryService;
+import com.alethiq.backend.service.ChatEventService;
+import com.alethiq.backend.service.ChatMessageStore;
 import com.alethiq.backend.service.ChatService;
+import com.alethiq.backend.service.EventLog;
+import com.alethiq.backend.service.ResumableStreamService;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 
@@ -32,6 +38,21 @@ public class ChatController {
     @Autowired
     private AiStreamService aiStreamService;
 
+    @Autowired
+    private ResumableStreamService resumableStreamService;
+
+    @Autowired
+    private BatchQueryService batchQueryService;
+
+    @Autowired
+    private ChatMessageStore messageStore;
+
+    @Autowired
+    private ChatEventService chatEventService;
+
+    @Autowired
+    private EventLog eventLog;
+
     @Autowired
     private ChatRepository chatRepository;
 
@@ -55,11 +76,30 @@ public class ChatController {
         return ResponseEntity.ok(chatService.getUserChats(userId));
     }
 
+    // Live chat-list deltas (created / title / new message) so open tabs don't have to poll the list
+    @GetMapping(value = "/user/{userId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<ChatDTO.ChatDelta>>> chatEvents(@PathVariable String userId, Principal principal) {
+        if (principal == null) return ResponseEntity.status(403).build();
+        User user = userRepository.findByUsername(principal.getName())
+                .orElseThrow(() -> new RuntimeException("User not found"));
+        // Security Check
+        if (!String.valueOf(user.getId()).equals(userId)) return ResponseEntity.status(403).build();
+
+        return ResponseEntity.ok(chatEventService.subscribe(userId));
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<Chat> getChat(@PathVariable String id) {
         return ResponseEntity.ok(chatService.getChatById(id));
     }
 
+    // Paged history for long chats: one bucket at a time, newest bucket by default
+    @GetMapping("/{id}/messages")
+    public ResponseEntity<ChatDTO.MessagePage> getChatMessages(@PathVariable String id,
+                                                               @RequestParam(required = false) Integer bucket) {
+        return ResponseEntity.ok(chatService.getMessages(id, bucket));
+    }
+
     @GetMapping("/version")
     public ResponseEntity<String> checkVersion() {
         return ResponseEntity.ok("Alethiq Backend v3.4 - Threading Clean Build");
@@ -78,7 +118,7 @@ public class ChatController {
 
     
         if (request.conversationId() != null && !request.conversationId().isEmpty()) {
-            Optional<Chat> existing = chatRepository.findById(request.conversationId());
+            Optional<Chat> existing = chatService.findChatMetadata(request.conversationId());
             if (existing.isPresent()) {
                 Chat foundChat = existing.get();
                 // Security Check
@@ -90,10 +130,13 @@ public class ChatController {
 
         if (chat == null) {
             chat = new Chat();
+            chat.setId(Chat.newId());
             chat.setUserId(String.valueOf(user.getId())); 
             chat.setTitle(request.query()); 
             chat.setCreatedAt(LocalDateTime.now());
+            chat.setLastActivityAt(LocalDateTime.now());
             chat.setMessages(new ArrayList<>());
+            chat.setBucketed(messageStore.enabled());
             
             chat = chatRepository.save(chat);
         }
@@ -102,10 +145,10 @@ public class ChatController {
             chat.setMessages(new ArrayList<>());
         }
         
-        chat.getMessages().add(new Message("USER", request.query(), LocalDateTime.now()));
-        chat.getMessages().add(new Message("AI", request.answer(), LocalDateTime.now()));
-
-        Chat savedChat = chatRepository.save(chat);
+        Chat savedChat = chatService.appendMessages(chat, List.of(
+                new Message("USER", request.query(), LocalDateTime.now()),
+                new Message("AI", request.answer(), LocalDateTime.now())));
+        eventLog.log(EventLog.Type.PERSIST, "chat", savedChat.getId(), "bucketed", savedChat.isBucketed());
 
         return ResponseEntity.ok(Map.of("conversationId", savedChat.getId()));
     }
@@ -113,8 +156,54 @@ public class ChatController {
     // --- STREAMING ENDPOINT ---
 
     @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> streamChat(@RequestBody ChatDTO.StreamRequest request, Principal principal) {
+    public ResponseEntity<Flux<ServerSentEvent<byte[]>>> streamChat(
+            @RequestBody ChatDTO.StreamRequest request,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            Principal principal) {
+        String username = (principal != null) ? principal.getName() : "Anonymous";
+
+        // Reconnect: pick the stream back up after the last event the client saw
+        ResumableStreamService.Cursor cursor = ResumableStreamService.Cursor.parse(lastEventId);
+        boolean resume = resumableStreamService.canResume(cursor, username);
+        eventLog.log(EventLog.Type.REQUEST, "path", "/api/chat/stream", "user", username, "resume", resume);
+        if (resume) {
+            return ResponseEntity.ok()
+                    .header("X-Stream-Id", cursor.streamId())
+                    .body(resumableStreamService.attach(cursor.streamId(), cursor.seq(), username));
+        }
+
+        String streamId = resumableStreamService.start(request.query(), username, request.mode(), request.conversationId());
+        return ResponseEntity.ok()
+                .header("X-Stream-Id", streamId)
+                .body(resumableStreamService.attach(streamId, 0, username));
+    }
+
+    // EventSource-style resume (GET, Last-Event-ID sent automatically by the browser)
+    @GetMapping(value = "/stream/{streamId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<byte[]>> resumeStream(
+            @PathVariable String streamId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            Principal principal) {
+        String username = (principal != null) ? principal.getName() : "Anonymous";
+        ResumableStreamService.Cursor cursor = ResumableStreamService.Cursor.parse(lastEventId);
+        long afterSeq = (cursor != null && cursor.streamId().equals(streamId)) ? cursor.seq() : 0;
+        return resumableStreamService.attach(streamId, afterSeq, username);
+    }
+
+    // Stop button: cancels the upstream generation instead of waiting for the detach timeout
+    @DeleteMapping("/stream/{streamId}")
+    public ResponseEntity<Void> cancelStream(@PathVariable String streamId, Principal principal) {
         String username = (principal != null) ? principal.getName() : "Anonymous";
-        return aiStreamService.streamAnswer(request.query(), username, "fast");
+        return resumableStreamService.cancel(streamId, username)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    // --- BATCH ENDPOINT ---
+
+    // One NDJSON line per query, written as each answer completes (not in input order)
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<ChatDTO.BatchItemResult> batchQuery(@Valid @RequestBody ChatDTO.BatchRequest request, Principal principal) {
+        return batchQueryService.run(request, principal.getName());
     }
-}
+}
\ No newline at end of file
@@ -1,6 +1,13 @@
 package com.alethiq.backend.dto;
 
+import com.alethiq.backend.entity.Message;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
+
+import java.time.LocalDateTime;
+import java.util.List;
 
 public class ChatDTO {
 
@@ -23,7 +30,8 @@ public class ChatDTO {
 
     public record StreamRequest(
             String query,
-            String mode 
+            String mode,
+            String conversationId  // Optional: the chat this turn belongs to, so a recovered answer lands there
     ) {}
 
    
@@ -32,5 +40,45 @@ public class ChatDTO {
         String answer,
         String conversationId  
     ) {}
-    
+
+    public record BatchRequest(
+            @NotEmpty(message = "Queries cannot be empty")
+            @Size(max = 500, message = "At most 500 queries per batch")
+            List<@NotBlank(message = "Queries cannot be blank") String> queries,
+            String mode,
+            @Positive(message = "Parallelism must be positive")
+            Integer parallelism,   // Optional, capped below the user's concurrency quota
+            @Positive(message = "Item timeout must be positive")
+            Long itemTimeoutMs     // Optional, per query
+    ) {}
+
+    // One NDJSON line of a batch response; index is the position in BatchRequest.queries
+    public record BatchItemResult(
+            int index,
+            String status,         // "ok", "timeout" or "error"
+            String answer,
+            String error
+    ) {}
+
+    // One bucket of a chat's messages; bucket numbers run from 0 to latestBucket
+    public record MessagePage(
+            String chatId,
+            int bucket,
+            int latestBucket,
+            List<Message> messages
+    ) {}
+
+    // Live chat-list update pushed over /api/chat/user/{userId}/events; type doubles as the SSE event name
+    public record ChatDelta(
+            String type,
+            String chatId,
+            String title,
+            int messageCount,
+            LocalDateTime lastActivityAt
+    ) {
+        public static final String CREATED = "chat.created";
+        public static final String TITLE_CHANGED = "chat.title";
+        public static final String MESSAGE_APPENDED = "chat.message";
+    }
+
 }
@@ -0,0 +1,28 @@
+package com.alethiq.backend.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@Document(collection = "chats_archive") // Cold tier: chats nobody has touched for a while
+public class ArchivedChat {
+
+    @Id
+    private String id; // Same id as the hot chat, so lookups don't need a mapping
+
+    private String userId;
+    private String title;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime lastActivityAt;
+    private LocalDateTime archivedAt;
+
+    private int messageCount;
+    private int rawSize;       // Size of the messages JSON before compression
+    private byte[] messages;   // GZIP-compressed JSON array of Message
+}
@@ -2,6 +2,7 @@ package com.alethiq.backend.entity;
 
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -22,6 +23,25 @@ public class Chat {
 
     private LocalDateTime createdAt;
 
+    // Bumped on every write; the tiering job archives chats that have been idle too long
+    private LocalDateTime lastActivityAt;
+
     // We store the messages directly inside the Chat object
+    // (unless bucketed: then they live in chat_messages and this list is only filled in on read)
     private List<Message> messages = new ArrayList<>();
+
+    // Bucketed storage: see MessageBucket
+    private boolean bucketed;
+    private int latestBucket;
+    private int messageCount;
+
+    /**
+     * The one place chat ids come from: ObjectId hex, so ids are 12 bytes on disk and grow with time
+     * (inserts append to the right edge of the _id index, and _id order is creation order).
+     * Spring Data stores a valid hex id as an ObjectId and anything else (the old random UUIDs) as a
+     * plain string, and converts the same way when querying, so both kinds keep resolving.
+     */
+    public static String newId() {
+        return new ObjectId().toHexString();
+    }
 }
\ No newline at end of file
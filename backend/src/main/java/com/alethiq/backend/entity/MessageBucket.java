@@ -0,0 +1,30 @@
+package com.alethiq.backend.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@Document(collection = "chat_messages") // Messages of bucketed chats, a fixed number per document
+@CompoundIndex(name = "chat_seq", def = "{'chatId': 1, 'seq': 1}")
+public class MessageBucket {
+
+    @Id
+    private String id; // "<chatId>:<seq>"
+
+    private String chatId;
+    private int seq;     // 0, 1, 2... in conversation order
+    private int count;   // == messages.size(), kept so "is this bucket full" is an index-free check
+
+    private List<Message> messages = new ArrayList<>();
+
+    public static String idFor(String chatId, int seq) {
+        return chatId + ":" + seq;
+    }
+}
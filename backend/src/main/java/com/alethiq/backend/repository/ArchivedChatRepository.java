@@ -0,0 +1,13 @@
+package com.alethiq.backend.repository;
+
+import com.alethiq.backend.entity.ArchivedChat;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ArchivedChatRepository extends MongoRepository<ArchivedChat, String> {
+
+    List<ArchivedChat> findByUserId(String userId);
+}
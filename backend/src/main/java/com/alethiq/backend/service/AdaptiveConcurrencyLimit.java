@@ -0,0 +1,37 @@
+package com.alethiq.backend.service;
+
+/**
+ * AIMD concurrency limit driven by upstream latency.
+ *
+ * Every call that reaches its first answer token under its target latency adds 1/limit (roughly +1 per
+ * "window" of calls); a slow call, a failure or a timeout multiplies the limit by the backoff factor.
+ * The target comes with each sample, so modes with different expected latencies can share one limit.
+ * Not thread-safe on its own, InferenceScheduler calls it under its lock.
+ */
+class AdaptiveConcurrencyLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoff;
+
+    private double limit;
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double backoff) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoff = backoff;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    void onSample(long latencyNanos, long targetLatencyNanos, boolean success) {
+        if (!success || latencyNanos > targetLatencyNanos) {
+            limit = Math.max(minLimit, limit * backoff);
+        } else {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    int get() {
+        return (int) limit;
+    }
+}
@@ -1,29 +1,88 @@
 // FORCE BUILD UPDATE 1
 package com.alethiq.backend.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.util.AttributeKey;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.stereotype.Service;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.ConnectionObserver;
+import reactor.netty.http.client.HttpClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @Service
 public class AiStreamService {
 
+    // Reactor context key: a Runnable run once the upstream connection of a call is closed or back in the pool
+    public static final String ON_CONNECTION_RELEASE = "alethiq.upstream.onRelease";
+    private static final AttributeKey<Runnable> RELEASE_CALLBACK = AttributeKey.valueOf(ON_CONNECTION_RELEASE);
+
     private final WebClient webClient;
+    private final InferenceScheduler scheduler;
+    private final EventLog eventLog;
+    private final SemanticCacheService semanticCache;
+    private final Duration loadCheck;
 
     // 🟢 REMOVED: ChatService dependency (not needed here anymore)
 
-    public AiStreamService(WebClient.Builder webClientBuilder) {
-        String pythonUrl = "https://gaurav-code098-alethiq.hf.space";
-        this.webClient = webClientBuilder.baseUrl(pythonUrl).build();
+    public AiStreamService(WebClient.Builder webClientBuilder,
+                           InferenceScheduler scheduler,
+                           EventLog eventLog,
+                           SemanticCacheService semanticCache,
+                           @Value("${alethiq.python.url:https://gaurav-code098-alethiq.hf.space}") String pythonUrl,
+                           @Value("${alethiq.speculative.load-check:250ms}") Duration loadCheck) {
+        this.webClient = webClientBuilder.baseUrl(pythonUrl)
+                .clientConnector(new ReactorClientHttpConnector(observeRelease(HttpClient.create())))
+                .build();
+        this.scheduler = scheduler;
+        this.eventLog = eventLog;
+        this.semanticCache = semanticCache;
+        this.loadCheck = loadCheck;
     }
 
-    public Flux<String> streamAnswer(String rawQueryJson, String username, String fast) {
-        System.out.println("🚀 Stream Request for: " + username);
+    // The callback rides on the channel of the current request and is swapped out on reuse, so a pooled
+    // connection never collects callbacks of earlier calls
+    private static HttpClient observeRelease(HttpClient client) {
+        return client
+                .doOnRequest((request, connection) -> connection.channel().attr(RELEASE_CALLBACK)
+                        .set(request.currentContextView().<Runnable>getOrEmpty(ON_CONNECTION_RELEASE).orElse(null)))
+                .observe((connection, state) -> {
+                    if (state != ConnectionObserver.State.RELEASED && state != ConnectionObserver.State.DISCONNECTING) return;
+                    Runnable callback = connection.channel().attr(RELEASE_CALLBACK).getAndSet(null);
+                    if (callback != null) callback.run();
+                });
+    }
+
+    public Flux<StreamEvent> streamAnswer(String rawQueryJson, String username, String mode) {
+        if (InferenceScheduler.SPECULATIVE.equalsIgnoreCase(mode)) {
+            return speculative(rawQueryJson, username);
+        }
+        String upstreamMode = InferenceScheduler.normalizeMode(mode);
+
+        // Paraphrase of something we already answered: no upstream call, no scheduler slot
+        Optional<String> cached = semanticCache.lookup(rawQueryJson, upstreamMode);
+        if (cached.isPresent()) {
+            eventLog.log(EventLog.Type.STREAM_START, "user", username, "mode", upstreamMode, "cache", "hit");
+            return Flux.just(
+                    StreamEvent.status("⚡ Instant Recall from Cache"),
+                    StreamEvent.token(cached.get()),
+                    StreamEvent.status("Done"),
+                    StreamEvent.done());
+        }
+        eventLog.log(EventLog.Type.STREAM_START, "user", username, "mode", upstreamMode);
 
         // Parse query (simple version)
         String cleanQuery = rawQueryJson;
@@ -32,19 +91,124 @@ public class AiStreamService {
 
         Map<String, String> body = new HashMap<>();
         body.put("query", cleanQuery);
-        body.put("mode", "fast");
+        body.put("mode", upstreamMode);
 
-        return webClient.post()
+        // Waits for a slot in the mode's queue; the slot is held until the stream ends or is cancelled
+        return scheduler.schedule(mode, username, () -> webClient.post()
                 .uri("/query-stream")
                 .contentType(MediaType.APPLICATION_JSON)
                 .accept(MediaType.TEXT_EVENT_STREAM)
                 .bodyValue(body)
                 .retrieve()
                 .onStatus(HttpStatusCode::isError, response -> response.createException())
-                .bodyToFlux(String.class)
-                .doOnError(e -> System.out.println("🔥 Stream Error: " + e.getMessage()));
+                .bodyToFlux(DataBuffer.class)
+                .as(UpstreamSseDecoder::decode),
+                // Upstream sends status frames first; the first token is when search and model are done
+                event -> event.type() == StreamEvent.Type.TOKEN)
+                .transform(events -> cacheOnCompletion(events, rawQueryJson, upstreamMode))
+                .doOnComplete(() -> eventLog.log(EventLog.Type.STREAM_END, "user", username))
+                .doOnError(e -> eventLog.log(EventLog.Type.STREAM_ERROR, "user", username, "error", e.getMessage()));
                 
                 // 🟢 REMOVED: .doOnComplete(saveConversation)
                 // We now rely on the Frontend (App.jsx) to call /save-conversation
     }
+
+    /**
+     * Runs the query to completion and returns only the assembled answer text (no status/sources frames).
+     */
+    public Mono<String> answer(String query, String username, String mode) {
+        return streamAnswer(query, username, mode)
+                .reduce(new StringBuilder(), (answer, event) -> {
+                    String chunk = event.token();
+                    if (chunk != null) answer.append(chunk);
+                    String replacement = event.replacement();
+                    if (replacement != null) {
+                        answer.setLength(0);
+                        answer.append(replacement);
+                    }
+                    return answer;
+                })
+                .map(StringBuilder::toString);
+    }
+
+    /**
+     * Speculative mode: the fast answer streams straight away while the deep one is computed alongside;
+     * once both are done the deep answer goes out as a single REPLACE event, then [DONE].
+     * The deep call takes a scheduler slot like any other call, and is dropped (no REPLACE) when it
+     * fails, when the scheduler is already saturated, or as soon as other callers start queueing.
+     */
+    private Flux<StreamEvent> speculative(String query, String username) {
+        return Flux.defer(() -> {
+            StringBuilder fastAnswer = new StringBuilder();
+            Sinks.Empty<Void> fastFinished = Sinks.empty();
+
+            Flux<StreamEvent> fast = streamAnswer(query, username, InferenceScheduler.FAST)
+                    .filter(event -> event.type() != StreamEvent.Type.DONE)
+                    .doOnNext(event -> {
+                        String chunk = event.token();
+                        if (chunk != null) fastAnswer.append(chunk);
+                    })
+                    .doOnComplete(fastFinished::tryEmitEmpty);
+
+            Mono<StreamEvent> upgrade = deepAnswer(query, username)
+                    .delayUntil(answer -> fastFinished.asMono())
+                    .filter(answer -> !answer.contentEquals(fastAnswer))
+                    .map(StreamEvent::replace);
+
+            // A failing fast call cancels the deep one with it
+            return Flux.merge(fast, upgrade).concatWithValues(StreamEvent.done());
+        });
+    }
+
+    // Complete deep answer, or empty if the call was shed or failed
+    private Mono<String> deepAnswer(String query, String username) {
+        return Mono.defer(() -> {
+            if (scheduler.isSaturated()) {
+                eventLog.log(EventLog.Type.STREAM_CANCEL, "user", username, "mode", InferenceScheduler.DEEP, "reason", "saturated");
+                return Mono.empty();
+            }
+            boolean[] shed = new boolean[1];
+            Flux<Long> othersWaiting = Flux.interval(loadCheck)
+                    .filter(tick -> scheduler.queued() > 0)
+                    .doOnNext(tick -> {
+                        shed[0] = true;
+                        eventLog.log(EventLog.Type.STREAM_CANCEL, "user", username, "mode", InferenceScheduler.DEEP, "reason", "load");
+                    });
+
+            return streamAnswer(query, username, InferenceScheduler.DEEP)
+                    .takeUntilOther(othersWaiting)
+                    .collectList()
+                    .flatMap(events -> shed[0] ? Mono.empty() : completeAnswer(events))
+                    .onErrorResume(e -> Mono.empty());
+        });
+    }
+
+    private static Mono<String> completeAnswer(List<StreamEvent> events) {
+        if (events.stream().anyMatch(event -> event.type() == StreamEvent.Type.ERROR)) return Mono.empty();
+        String answer = StreamEvent.answerText(events);
+        return answer == null || answer.isEmpty() ? Mono.empty() : Mono.just(answer);
+    }
+
+    // Keeps the raw TOKEN frames as they stream past and caches the answer once the upstream finishes
+    // cleanly. The frames are decoded once, at the end, and not at all while the cache is off.
+    private Flux<StreamEvent> cacheOnCompletion(Flux<StreamEvent> events, String query, String mode) {
+        if (!semanticCache.enabled()) return events;
+        return Flux.defer(() -> {
+            List<StreamEvent> tokens = new ArrayList<>();
+            boolean[] failed = new boolean[1];
+            return events
+                    .doOnNext(event -> {
+                        if (event.type() == StreamEvent.Type.ERROR) failed[0] = true;
+                        else if (event.type() == StreamEvent.Type.TOKEN) tokens.add(event);
+                    })
+                    .doOnComplete(() -> {
+                        if (failed[0] || tokens.isEmpty()) return;
+                        // Decoding, embedding and the index insert stay off the event loop
+                        Schedulers.boundedElastic().schedule(() -> {
+                            String answer = StreamEvent.answerText(tokens);
+                            if (answer != null) semanticCache.put(query, mode, answer);
+                        });
+                    });
+        });
+    }
 }
@@ -0,0 +1,68 @@
+package com.alethiq.backend.service;
+
+import com.alethiq.backend.dto.ChatDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs a list of queries through {@link AiStreamService} with bounded parallelism and emits each
+ * answer as soon as it is ready (completion order, tagged with its input index).
+ *
+ * Every item still goes through the {@link InferenceScheduler}, and a batch runs at most one call fewer
+ * than the user's in-flight quota, so it competes fairly with interactive traffic and leaves the same
+ * user room to keep chatting (with a quota of 1 there is no room to leave). A failed or timed-out item becomes an
+ * error line; it does not abort the rest of the batch.
+ */
+@Service
+public class BatchQueryService {
+
+    private final AiStreamService aiStreamService;
+    private final InferenceScheduler scheduler;
+    private final EventLog eventLog;
+    private final int defaultParallelism;
+    private final Duration defaultItemTimeout;
+
+    public BatchQueryService(AiStreamService aiStreamService,
+                             InferenceScheduler scheduler,
+                             EventLog eventLog,
+                             @Value("${alethiq.batch.parallelism:4}") int defaultParallelism,
+                             @Value("${alethiq.batch.item-timeout:120s}") Duration defaultItemTimeout) {
+        this.aiStreamService = aiStreamService;
+        this.scheduler = scheduler;
+        this.eventLog = eventLog;
+        this.defaultParallelism = defaultParallelism;
+        this.defaultItemTimeout = defaultItemTimeout;
+    }
+
+    public Flux<ChatDTO.BatchItemResult> run(ChatDTO.BatchRequest request, String username) {
+        List<String> queries = request.queries();
+        int requested = request.parallelism() != null ? request.parallelism() : defaultParallelism;
+        // Below the quota, so one slot stays free for the same user's interactive requests (more would
+        // only park items in the scheduler queue and burn their timeout). A speculative item holds two.
+        int slotsPerItem = InferenceScheduler.SPECULATIVE.equalsIgnoreCase(request.mode()) ? 2 : 1;
+        int parallelism = Math.max(1, Math.min(requested, (scheduler.perUserLimit() - 1) / slotsPerItem));
+        Duration itemTimeout = request.itemTimeoutMs() != null ? Duration.ofMillis(request.itemTimeoutMs()) : defaultItemTimeout;
+
+        eventLog.log(EventLog.Type.REQUEST, "path", "/api/chat/batch", "user", username,
+                "items", queries.size(), "parallelism", parallelism);
+
+        return Flux.range(0, queries.size())
+                .flatMap(index -> runOne(index, queries.get(index), request.mode(), username, itemTimeout), parallelism);
+    }
+
+    // Deferred so nothing of the item (cache lookup, scheduling) happens before flatMap admits it
+    private Mono<ChatDTO.BatchItemResult> runOne(int index, String query, String mode, String username, Duration timeout) {
+        return Mono.defer(() -> aiStreamService.answer(query, username, mode))
+                .timeout(timeout)
+                .map(answer -> new ChatDTO.BatchItemResult(index, "ok", answer, null))
+                .onErrorResume(TimeoutException.class,
+                        e -> Mono.just(new ChatDTO.BatchItemResult(index, "timeout", null, "Timed out after " + timeout.toMillis() + " ms")))
+                .onErrorResume(e -> Mono.just(new ChatDTO.BatchItemResult(index, "error", null, e.getMessage())));
+    }
+}
@@ -0,0 +1,260 @@
+package com.alethiq.backend.service;
+
+import com.alethiq.backend.entity.ArchivedChat;
+import com.alethiq.backend.entity.Chat;
+import com.alethiq.backend.entity.Message;
+import com.alethiq.backend.repository.ArchivedChatRepository;
+import com.alethiq.backend.repository.ChatRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Moves chats that have been idle for longer than {@code alethiq.tiering.idle-age} out of the hot
+ * {@code chats} collection into {@code chats_archive}, with the message array GZIP-compressed.
+ *
+ * The job runs in small batches with a pause in between so it never competes with live traffic.
+ * Reads fall back to the archive transparently; a chat that is opened again is promoted back to hot.
+ */
+@Service
+public class ChatArchiveService {
+
+    private static final TypeReference<List<Message>> MESSAGE_LIST = new TypeReference<>() {};
+
+    private final ChatRepository chatRepository;
+    private final ArchivedChatRepository archiveRepository;
+    private final MongoTemplate mongoTemplate;
+    private final ObjectMapper objectMapper;
+    private final ChatMessageStore messageStore;
+    private final EventLog eventLog;
+
+    private final Duration idleAge;
+    private final int batchSize;
+    private final Duration batchPause;
+    private final int maxBatchesPerRun;
+
+    private final Counter archivedChats;
+    private final Counter archivedRawBytes;
+    private final Counter archivedCompressedBytes;
+    private final Counter promotedChats;
+    private final Timer coldRead;
+
+    private volatile boolean indexed;
+
+    public ChatArchiveService(ChatRepository chatRepository,
+                              ArchivedChatRepository archiveRepository,
+                              MongoTemplate mongoTemplate,
+                              ObjectMapper objectMapper,
+                              ChatMessageStore messageStore,
+                              EventLog eventLog,
+                              MeterRegistry meterRegistry,
+                              @Value("${alethiq.tiering.idle-age:30d}") Duration idleAge,
+                              @Value("${alethiq.tiering.batch-size:100}") int batchSize,
+                              @Value("${alethiq.tiering.batch-pause:500ms}") Duration batchPause,
+                              @Value("${alethiq.tiering.max-batches-per-run:50}") int maxBatchesPerRun) {
+        this.chatRepository = chatRepository;
+        this.archiveRepository = archiveRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.objectMapper = objectMapper;
+        this.messageStore = messageStore;
+        this.eventLog = eventLog;
+        this.idleAge = idleAge;
+        this.batchSize = batchSize;
+        this.batchPause = batchPause;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+
+        this.archivedChats = Counter.builder("alethiq.tiering.archived").register(meterRegistry);
+        // raw - compressed = how much the hot set shrank
+        this.archivedRawBytes = Counter.builder("alethiq.tiering.archived.raw.bytes").register(meterRegistry);
+        this.archivedCompressedBytes = Counter.builder("alethiq.tiering.archived.compressed.bytes").register(meterRegistry);
+        this.promotedChats = Counter.builder("alethiq.tiering.promoted").register(meterRegistry);
+        this.coldRead = Timer.builder("alethiq.tiering.cold.read")
+                .description("Fetch + decompress of an archived chat")
+                .register(meterRegistry);
+    }
+
+    // --- Background job ---
+
+    @Scheduled(fixedDelayString = "${alethiq.tiering.interval:3600000}", initialDelayString = "${alethiq.tiering.initial-delay:300000}")
+    public void archiveIdleChats() throws InterruptedException {
+        ensureIndex();
+        LocalDateTime cutoff = LocalDateTime.now().minus(idleAge);
+        // Chats written before lastActivityAt existed fall back to createdAt
+        Query idle = new Query(new Criteria().orOperator(
+                Criteria.where("lastActivityAt").lt(cutoff),
+                new Criteria().andOperator(
+                        Criteria.where("lastActivityAt").exists(false),
+                        Criteria.where("createdAt").lt(cutoff))))
+                .limit(batchSize);
+
+        int total = 0;
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            List<Chat> chats = mongoTemplate.find(idle, Chat.class);
+            if (chats.isEmpty()) break;
+
+            for (Chat chat : chats) {
+                archive(chat);
+            }
+            total += chats.size();
+            if (chats.size() < batchSize) break;
+            Thread.sleep(batchPause.toMillis());
+        }
+        if (total > 0) eventLog.log(EventLog.Type.PERSIST, "op", "archive", "chats", total);
+    }
+
+    // Backs the idle query, fallback branch included (a missing lastActivityAt is indexed as null)
+    private void ensureIndex() {
+        if (indexed) return;
+        mongoTemplate.indexOps(Chat.class).createIndex(new Index()
+                .on("lastActivityAt", Sort.Direction.ASC).on("createdAt", Sort.Direction.ASC).named("activity"));
+        indexed = true;
+    }
+
+    private void archive(Chat chat) {
+        // Claim the chat as we read it. An append from here on revokes the claim before it writes, and the
+        // conditional remove below then fails, so neither its messages nor a second hot copy can be lost.
+        Criteria unchanged = Criteria.where("_id").is(chat.getId());
+        unchanged = chat.getLastActivityAt() == null
+                ? unchanged.and("lastActivityAt").exists(false)
+                : unchanged.and("lastActivityAt").is(chat.getLastActivityAt());
+        unchanged = chat.isBucketed() ? unchanged.and("bucketed").is(true) : unchanged.and("bucketed").ne(true);
+        String claim = messageStore.claim(unchanged);
+        if (claim == null) return; // Touched since the idle query, or being converted
+
+        messageStore.hydrate(chat);
+        byte[] raw = writeMessages(chat.getMessages());
+        byte[] compressed = gzip(raw);
+
+        ArchivedChat cold = new ArchivedChat();
+        cold.setId(chat.getId());
+        cold.setUserId(chat.getUserId());
+        cold.setTitle(chat.getTitle());
+        cold.setCreatedAt(chat.getCreatedAt());
+        cold.setLastActivityAt(chat.getLastActivityAt());
+        cold.setArchivedAt(LocalDateTime.now());
+        cold.setMessageCount(chat.getMessages() == null ? 0 : chat.getMessages().size());
+        cold.setRawSize(raw.length);
+        cold.setMessages(compressed);
+
+        // Cold copy first: if we crash in between, the hot copy still wins on read and is re-archived next run
+        archiveRepository.save(cold);
+
+        // Only remove the hot copy while the claim holds; otherwise it was appended to and is not idle any more
+        Criteria stillClaimed = Criteria.where("_id").is(chat.getId()).andOperator(messageStore.claimedBy(claim));
+        if (mongoTemplate.remove(Query.query(stillClaimed), Chat.class).getDeletedCount() == 0) {
+            archiveRepository.deleteById(chat.getId());
+            return;
+        }
+        if (chat.isBucketed()) messageStore.delete(chat.getId());
+
+        archivedChats.increment();
+        archivedRawBytes.increment(raw.length);
+        archivedCompressedBytes.increment(compressed.length);
+    }
+
+    // --- Read path ---
+
+    /**
+     * Moves an archived chat back to the hot collection. Empty if it is not in the archive either.
+     */
+    public Optional<Chat> promote(String id) {
+        Optional<Chat> restored = readCold(id);
+        restored.ifPresent(chat -> {
+            chat.setLastActivityAt(LocalDateTime.now());
+            chatRepository.save(chat);
+            archiveRepository.deleteById(id);
+            // Back to bucketed right away so the next append doesn't rewrite the whole history
+            if (messageStore.enabled()) messageStore.convert(chat);
+            promotedChats.increment();
+        });
+        return restored;
+    }
+
+    /**
+     * Archived chats of a user, inflated but left in the cold tier (listing is not a touch).
+     * A chat that also has a hot document ({@code hotIds}) is left out: the hot one wins, as on every read.
+     * The cold copy is not deleted here, it may be an archive run that has not removed the hot one yet.
+     */
+    public List<Chat> findUserChats(String userId, Set<String> hotIds) {
+        List<Chat> chats = new ArrayList<>();
+        for (ArchivedChat cold : archiveRepository.findByUserId(userId)) {
+            if (hotIds.contains(cold.getId())) continue;
+            chats.add(coldRead.record(() -> inflate(cold)));
+        }
+        return chats;
+    }
+
+    private Optional<Chat> readCold(String id) {
+        return coldRead.record(() -> archiveRepository.findById(id).map(this::inflate));
+    }
+
+    private Chat inflate(ArchivedChat cold) {
+        Chat chat = new Chat();
+        chat.setId(cold.getId());
+        chat.setUserId(cold.getUserId());
+        chat.setTitle(cold.getTitle());
+        chat.setCreatedAt(cold.getCreatedAt());
+        chat.setLastActivityAt(cold.getLastActivityAt());
+        chat.setMessages(readMessages(gunzip(cold.getMessages())));
+        return chat;
+    }
+
+    // --- Encoding ---
+
+    private byte[] writeMessages(List<Message> messages) {
+        try {
+            return objectMapper.writeValueAsBytes(messages == null ? List.of() : messages);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<Message> readMessages(byte[] json) {
+        try {
+            return new ArrayList<>(objectMapper.readValue(json, MESSAGE_LIST));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) {
+        try (GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return gz.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
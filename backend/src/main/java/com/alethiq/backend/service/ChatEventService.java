@@ -0,0 +1,292 @@
+package com.alethiq.backend.service;
+
+import com.alethiq.backend.dto.ChatDTO;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.messaging.ChangeStreamRequest;
+import org.springframework.data.mongodb.core.messaging.DefaultMessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Message;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Subscription;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes chat-list changes to open clients instead of having them re-fetch and poll the chat list.
+ *
+ * One change stream on {@code chats} (shared by the whole process) is turned into compact
+ * {@link ChatDTO.ChatDelta} events and handed to the per-user sinks of whoever is subscribed.
+ * The pipeline runs server-side, so the message arrays never come over the wire.
+ *
+ * Change streams need a replica set. On a standalone server (or while the stream is broken) the
+ * service falls back to polling {@code lastActivityAt} for the users that are connected, and keeps
+ * retrying the change stream in the background.
+ *
+ * {@code alethiq.chat.events.delivery} times each delta from the write (the change event's wall time,
+ * else the chat's lastActivityAt) to the push; its 100 ms bucket shows how often the target is met.
+ */
+@Service
+public class ChatEventService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatEventService.class);
+
+    private static final String CHATS = "chats";
+    // Far below the tiering idle-age, far above the time between the two timestamps of a new chat
+    private static final Duration PROMOTION_GAP = Duration.ofMinutes(1);
+
+    // Per-user fan-out; the sink goes away with its last subscriber
+    private static final class Subscribers {
+        final Sinks.Many<ChatDTO.ChatDelta> sink = Sinks.many().multicast().directBestEffort();
+        final AtomicInteger count = new AtomicInteger();
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final Duration heartbeat;
+    private final Duration pollInterval;
+
+    private final Map<String, Subscribers> subscribers = new ConcurrentHashMap<>();
+    private final Counter pushed;
+    private final Timer delivery;
+
+    private MessageListenerContainer container;
+    private volatile Subscription subscription;
+    private volatile boolean changeStreamActive;
+    private volatile boolean fallbackLogged;
+    private volatile Instant polledUntil = Instant.now();
+
+    public ChatEventService(MongoTemplate mongoTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${alethiq.stream.heartbeat:15s}") Duration heartbeat,
+                            @Value("${alethiq.chat.events.poll-interval:2000}") long pollIntervalMs) {
+        this.mongoTemplate = mongoTemplate;
+        this.heartbeat = heartbeat;
+        this.pollInterval = Duration.ofMillis(pollIntervalMs);
+
+        this.pushed = Counter.builder("alethiq.chat.events.pushed").register(meterRegistry);
+        this.delivery = Timer.builder("alethiq.chat.events.delivery")
+                .description("From the chat write to the delta being pushed to its subscribers")
+                .serviceLevelObjectives(Duration.ofMillis(100))
+                .register(meterRegistry);
+        Gauge.builder("alethiq.chat.events.subscribers", subscribers, Map::size).register(meterRegistry);
+        Gauge.builder("alethiq.chat.events.change.stream", this, s -> s.changeStreamActive ? 1 : 0).register(meterRegistry);
+    }
+
+    // --- Subscriptions ---
+
+    /**
+     * Live deltas for one user's chat list, with keep-alive comments in between.
+     */
+    public Flux<ServerSentEvent<ChatDTO.ChatDelta>> subscribe(String userId) {
+        return Flux.defer(() -> {
+                    Subscribers subs = subscribers.compute(userId, (key, existing) -> {
+                        Subscribers s = existing != null ? existing : new Subscribers();
+                        s.count.incrementAndGet();
+                        return s;
+                    });
+                    return subs.sink.asFlux()
+                            .map(delta -> ServerSentEvent.<ChatDTO.ChatDelta>builder()
+                                    .event(delta.type())
+                                    .data(delta)
+                                    .build())
+                            .mergeWith(Flux.interval(heartbeat)
+                                    .map(tick -> ServerSentEvent.<ChatDTO.ChatDelta>builder().comment("keepalive").build()))
+                            .doFinally(signal -> unsubscribe(userId, subs));
+                });
+    }
+
+    private void unsubscribe(String userId, Subscribers subs) {
+        subscribers.computeIfPresent(userId, (key, existing) ->
+                existing == subs && subs.count.decrementAndGet() == 0 ? null : existing);
+    }
+
+    private void publish(String userId, ChatDTO.ChatDelta delta, Date writtenAt) {
+        Subscribers subs = subscribers.get(userId);
+        if (subs == null) return;
+        // Several threads can publish (change stream, poller); a failed emit only means a busy sink
+        subs.sink.emitNext(delta, Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(50)));
+        pushed.increment();
+        if (writtenAt != null) delivery.record(Math.max(0, System.currentTimeMillis() - writtenAt.getTime()), TimeUnit.MILLISECONDS);
+    }
+
+    // --- Change stream ---
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        container = new DefaultMessageListenerContainer(mongoTemplate);
+        container.start();
+        register();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (container != null) container.stop();
+    }
+
+    // Re-tries the change stream while we are on the polling fallback
+    @Scheduled(fixedDelayString = "${alethiq.chat.events.retry-interval:60000}", initialDelayString = "${alethiq.chat.events.retry-interval:60000}")
+    public void retryChangeStream() {
+        if (container == null || changeStreamActive) return;
+        if (subscription != null) container.remove(subscription);
+        register();
+    }
+
+    private void register() {
+        ChangeStreamRequest<Document> request = ChangeStreamRequest.builder(
+                        (Message<ChangeStreamDocument<Document>, Document> message) -> handle(message.getRaw()))
+                .collection(CHATS)
+                .filter(PIPELINE)
+                .fullDocumentLookup(FullDocument.UPDATE_LOOKUP)
+                .build();
+        changeStreamActive = true;
+        subscription = container.register(request, Document.class, this::onChangeStreamError);
+    }
+
+    private void onChangeStreamError(Throwable error) {
+        Subscription failed = subscription;
+        if (failed != null) failed.cancel();
+        // Warn once; a standalone server fails the same way on every retry
+        if (!fallbackLogged) {
+            log.warn("Chat change stream unavailable, polling every {} instead: {}", pollInterval, error.getMessage());
+            fallbackLogged = true;
+        } else {
+            log.debug("Chat change stream still unavailable: {}", error.getMessage());
+        }
+        // Poll from a little before now so nothing that happened while the stream died is missed
+        polledUntil = Instant.now().minus(pollInterval);
+        changeStreamActive = false;
+    }
+
+    void handle(ChangeStreamDocument<Document> change) {
+        ChatDTO.ChatDelta delta = deltaFor(change);
+        if (delta == null) return;
+        Date writtenAt = change.getWallTime() != null
+                ? new Date(change.getWallTime().getValue())
+                : change.getFullDocument().getDate("lastActivityAt");
+        publish(change.getFullDocument().getString("userId"), delta, writtenAt);
+    }
+
+    // The delta a change stands for, or null if it is nothing the chat list shows
+    static ChatDTO.ChatDelta deltaFor(ChangeStreamDocument<Document> change) {
+        Document chat = change.getFullDocument();
+        if (chat == null || chat.getString("userId") == null) return null; // Gone again (archived) before the lookup
+
+        String type;
+        if (change.getOperationType() == OperationType.INSERT) {
+            if (isPromotion(chat)) return null; // Already in the user's list, from the archive
+            type = ChatDTO.ChatDelta.CREATED;
+        } else if (change.getOperationType() == OperationType.UPDATE) {
+            BsonDocument updated = change.getUpdateDescription() == null ? null : change.getUpdateDescription().getUpdatedFields();
+            if (updated == null) return null;
+            // Bucket conversion sets messageCount too, but moving messages is not a new one
+            if (updated.containsKey("bucketed")) return null;
+            if (updated.containsKey("title")) {
+                type = ChatDTO.ChatDelta.TITLE_CHANGED;
+            } else if (updated.containsKey("messageCount") || updated.keySet().stream().anyMatch(f -> f.startsWith("messages"))) {
+                type = ChatDTO.ChatDelta.MESSAGE_APPENDED;
+            } else {
+                return null; // lastActivityAt-only touches, move claims etc.
+            }
+        } else {
+            // Whole-document save of an existing chat; appends are $push/$inc updates, so treat it as one
+            type = ChatDTO.ChatDelta.MESSAGE_APPENDED;
+        }
+        return toDelta(type, chat);
+    }
+
+    // A chat promoted back from the archive is re-inserted with its original createdAt and a fresh
+    // lastActivityAt; a new chat gets both in the same request.
+    private static boolean isPromotion(Document chat) {
+        Date created = chat.getDate("createdAt");
+        Date lastActivity = chat.getDate("lastActivityAt");
+        return created != null && lastActivity != null
+                && lastActivity.getTime() - created.getTime() > PROMOTION_GAP.toMillis();
+    }
+
+    // --- Polling fallback ---
+
+    @Scheduled(fixedDelayString = "${alethiq.chat.events.poll-interval:2000}")
+    public void poll() {
+        if (changeStreamActive || subscribers.isEmpty()) {
+            polledUntil = Instant.now();
+            return;
+        }
+
+        Instant since = polledUntil;
+        Instant now = Instant.now();
+        for (Document chat : changedSince(new ArrayList<>(subscribers.keySet()), since)) {
+            Date created = chat.getDate("createdAt");
+            String type = created != null && created.toInstant().isAfter(since)
+                    ? ChatDTO.ChatDelta.CREATED
+                    : ChatDTO.ChatDelta.MESSAGE_APPENDED;
+            publish(chat.getString("userId"), toDelta(type, chat), chat.getDate("lastActivityAt"));
+        }
+        polledUntil = now;
+    }
+
+    // Chats of these users touched after `since`, without their message arrays
+    Iterable<Document> changedSince(List<String> userIds, Instant since) {
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$match", new Document("userId", new Document("$in", userIds))
+                .append("lastActivityAt", new Document("$gt", Date.from(since)))));
+        pipeline.add(new Document("$addFields", new Document("messageCount", messageCount(""))));
+        pipeline.add(new Document("$project", new Document("messages", 0)));
+        return mongoTemplate.getCollection(CHATS).aggregate(pipeline);
+    }
+
+    // --- Mapping ---
+
+    // Only the events we push, with the message array swapped for its size
+    private static final Document[] PIPELINE = {
+            new Document("$match", new Document("operationType", new Document("$in", List.of("insert", "update", "replace")))),
+            new Document("$addFields", new Document("fullDocument.messageCount", messageCount("fullDocument."))),
+            new Document("$project", new Document("fullDocument.messages", 0))
+    };
+
+    // Bucketed chats keep a counter, embedded ones only have the array
+    private static Document messageCount(String prefix) {
+        return new Document("$cond", List.of(
+                new Document("$eq", List.of("$" + prefix + "bucketed", true)),
+                "$" + prefix + "messageCount",
+                new Document("$size", new Document("$ifNull", List.of("$" + prefix + "messages", List.of())))));
+    }
+
+    private static ChatDTO.ChatDelta toDelta(String type, Document chat) {
+        Date lastActivity = chat.getDate("lastActivityAt");
+        Number messageCount = chat.get("messageCount", Number.class);
+        return new ChatDTO.ChatDelta(
+                type,
+                String.valueOf(chat.get("_id")),
+                chat.getString("title"),
+                messageCount == null ? 0 : messageCount.intValue(),
+                lastActivity == null ? null : LocalDateTime.ofInstant(lastActivity.toInstant(), ZoneId.systemDefault()));
+    }
+}
@@ -0,0 +1,254 @@
+package com.alethiq.backend.service;
+
+import com.alethiq.backend.entity.Chat;
+import com.alethiq.backend.entity.Message;
+import com.alethiq.backend.entity.MessageBucket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Bucketed message storage: a bucketed chat keeps only metadata and a pointer to its latest bucket,
+ * and the messages live in {@code chat_messages} documents of at most {@code bucket-size} each.
+ *
+ * Appends are a conditional {@code $push} into the latest bucket (rolling over to a new one when it is
+ * full), plus a small {@code $set/$inc} on the chat; neither rewrites the conversation. Never save a
+ * hydrated bucketed Chat through the repository, that would copy the messages back into the document.
+ *
+ * Whoever moves a chat's messages elsewhere (bucket conversion, archiving) first takes a claim on the
+ * chat document. Every append revokes it before writing anything, so the mover's final conditional
+ * write fails and it backs off instead of dropping the new messages.
+ */
+@Service
+public class ChatMessageStore {
+
+    // Move claim on the chat document; not mapped on Chat, so a whole-document save drops it
+    private static final String CLAIM = "moveClaim";
+    private static final String CLAIMED_AT = "moveClaimedAt";
+    private static final Duration CLAIM_TIMEOUT = Duration.ofMinutes(10);
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final int bucketSize;
+
+    public ChatMessageStore(MongoTemplate mongoTemplate,
+                            @Value("${alethiq.chat.bucketed-storage:true}") boolean enabled,
+                            @Value("${alethiq.chat.bucket-size:100}") int bucketSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.bucketSize = bucketSize;
+    }
+
+    // Whether new chats are created bucketed and existing ones get migrated
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public int bucketSize() {
+        return bucketSize;
+    }
+
+    // --- Writes ---
+
+    public void append(Chat chat, List<Message> messages) {
+        LocalDateTime now = LocalDateTime.now();
+        if (!chat.isBucketed()) {
+            // Embedded: push onto the array of the document as long as it is still embedded
+            long pushed = mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(chat.getId()).and("bucketed").ne(true)),
+                    new Update().push("messages").each(messages.toArray()).set("lastActivityAt", now)
+                            .unset(CLAIM).unset(CLAIMED_AT),
+                    Chat.class).getMatchedCount();
+            if (pushed == 1) {
+                chat.getMessages().addAll(messages);
+                chat.setLastActivityAt(now);
+                return;
+            }
+            // Converted to buckets since it was read: append there instead
+            Chat current = mongoTemplate.findById(chat.getId(), Chat.class);
+            if (current == null || !current.isBucketed()) throw new RuntimeException("Chat not found");
+            chat.setBucketed(true);
+            chat.setLatestBucket(current.getLatestBucket());
+            chat.setMessageCount(current.getMessageCount());
+            chat.setMessages(new ArrayList<>());
+        }
+
+        // Touch the chat (and revoke any claim) before the messages go anywhere. No match means it was
+        // archived since it was read; opening it again brings it back.
+        long touched = mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(chat.getId())),
+                new Update().inc("messageCount", messages.size()).set("lastActivityAt", now).unset(CLAIM).unset(CLAIMED_AT),
+                Chat.class).getMatchedCount();
+        if (touched == 0) throw new RuntimeException("Chat not found");
+
+        int seq = chat.getLatestBucket();
+        // A turn (USER + AI) goes into one bucket in one $push; only a batch larger than a bucket is split
+        for (int from = 0; from < messages.size(); from += bucketSize) {
+            seq = pushInto(chat.getId(), seq, messages.subList(from, Math.min(from + bucketSize, messages.size())));
+        }
+        if (seq > chat.getLatestBucket()) {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(chat.getId())),
+                    new Update().max("latestBucket", seq), Chat.class);
+        }
+
+        chat.setLatestBucket(Math.max(chat.getLatestBucket(), seq));
+        chat.setMessageCount(chat.getMessageCount() + messages.size());
+        chat.setLastActivityAt(now);
+    }
+
+    // Upsert into bucket `seq` while all of `messages` still fit; a bucket without room makes the upsert
+    // try to insert a duplicate _id, which is our signal to roll over to the next one. The messages stay
+    // together, so a bucket can close a little under bucket-size.
+    private int pushInto(String chatId, int seq, List<Message> messages) {
+        while (true) {
+            Query hasRoom = Query.query(Criteria.where("_id").is(MessageBucket.idFor(chatId, seq))
+                    .and("count").lte(bucketSize - messages.size()));
+            Update push = new Update()
+                    .push("messages").each(messages.toArray())
+                    .inc("count", messages.size())
+                    .setOnInsert("chatId", chatId)
+                    .setOnInsert("seq", seq);
+            try {
+                mongoTemplate.upsert(hasRoom, push, MessageBucket.class);
+                return seq;
+            } catch (DuplicateKeyException full) {
+                seq++;
+            }
+        }
+    }
+
+    /**
+     * Moves an embedded chat's messages into buckets. The chat is only flipped to bucketed if its
+     * message array still has the size we copied, so a concurrent append just makes us retry later.
+     *
+     * The chat is claimed before any bucket is written, and only while it is still embedded and
+     * unchanged. A converter working from a stale read (the chat was converted, and maybe appended to,
+     * since) therefore never gets to overwrite live buckets. A claim left by a crashed converter
+     * expires after {@link #CLAIM_TIMEOUT}.
+     */
+    public boolean convert(Chat chat) {
+        if (chat.isBucketed()) return true;
+        List<Message> messages = chat.getMessages() == null ? List.of() : chat.getMessages();
+
+        Criteria unchanged = Criteria.where("_id").is(chat.getId()).and("bucketed").ne(true);
+        Criteria sameMessages = messages.isEmpty()
+                ? new Criteria().orOperator(Criteria.where("messages").exists(false), Criteria.where("messages").size(0))
+                : Criteria.where("messages").size(messages.size());
+        String claim = claim(new Criteria().andOperator(unchanged, sameMessages));
+        if (claim == null) return false;
+
+        int lastSeq = 0;
+        for (int from = 0, seq = 0; from < messages.size(); from += bucketSize, seq++) {
+            MessageBucket bucket = new MessageBucket();
+            bucket.setId(MessageBucket.idFor(chat.getId(), seq));
+            bucket.setChatId(chat.getId());
+            bucket.setSeq(seq);
+            bucket.setMessages(new ArrayList<>(messages.subList(from, Math.min(from + bucketSize, messages.size()))));
+            bucket.setCount(bucket.getMessages().size());
+            // Full replace by id: only leftovers of an earlier failed attempt can be there while we hold the claim
+            mongoTemplate.save(bucket);
+            lastSeq = seq;
+        }
+
+        long updated = mongoTemplate.updateFirst(Query.query(new Criteria().andOperator(unchanged, sameMessages, claimedBy(claim))),
+                new Update().set("bucketed", true).set("latestBucket", lastSeq).set("messageCount", messages.size())
+                        .unset("messages").unset(CLAIM).unset(CLAIMED_AT),
+                Chat.class).getModifiedCount();
+        if (updated == 0) {
+            // Appended to meanwhile; let the next run try again
+            releaseClaim(chat.getId(), claim);
+            return false;
+        }
+
+        chat.setBucketed(true);
+        chat.setLatestBucket(lastSeq);
+        chat.setMessageCount(messages.size());
+        return true;
+    }
+
+    /**
+     * Claims the chat matching {@code unchanged} for moving its messages, unless someone else holds a live
+     * claim. Returns the claim, or null if the chat changed or is taken.
+     */
+    public String claim(Criteria unchanged) {
+        Criteria unclaimed = new Criteria().orOperator(
+                Criteria.where(CLAIMED_AT).exists(false),
+                Criteria.where(CLAIMED_AT).lt(LocalDateTime.now().minus(CLAIM_TIMEOUT)));
+        String claim = UUID.randomUUID().toString();
+        long claimed = mongoTemplate.updateFirst(Query.query(new Criteria().andOperator(unchanged, unclaimed)),
+                new Update().set(CLAIM, claim).set(CLAIMED_AT, LocalDateTime.now()),
+                Chat.class).getModifiedCount();
+        return claimed == 0 ? null : claim;
+    }
+
+    // Matches the chat only while `claim` has not been revoked by an append
+    public Criteria claimedBy(String claim) {
+        return Criteria.where(CLAIM).is(claim);
+    }
+
+    public void releaseClaim(String chatId, String claim) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(chatId).and(CLAIM).is(claim)),
+                new Update().unset(CLAIM).unset(CLAIMED_AT), Chat.class);
+    }
+
+    public void delete(String chatId) {
+        mongoTemplate.remove(Query.query(Criteria.where("chatId").is(chatId)), MessageBucket.class);
+    }
+
+    // --- Reads ---
+
+    public MessageBucket readBucket(String chatId, int seq) {
+        return mongoTemplate.findById(MessageBucket.idFor(chatId, seq), MessageBucket.class);
+    }
+
+    // Fills in the newest bucket of a bucketed chat (no-op for embedded chats); older buckets are
+    // paged through readBucket, so a read costs one bucket however long the chat is
+    public Chat hydrateLatest(Chat chat) {
+        if (!chat.isBucketed()) return chat;
+        MessageBucket latest = readBucket(chat.getId(), chat.getLatestBucket());
+        chat.setMessages(latest != null ? latest.getMessages() : new ArrayList<>());
+        return chat;
+    }
+
+    // Same as hydrateLatest, for a whole chat list in one query
+    public List<Chat> hydrateAllLatest(List<Chat> chats) {
+        Map<String, Chat> bucketed = new HashMap<>();
+        for (Chat chat : chats) {
+            if (chat.isBucketed()) {
+                chat.setMessages(new ArrayList<>());
+                bucketed.put(MessageBucket.idFor(chat.getId(), chat.getLatestBucket()), chat);
+            }
+        }
+        if (bucketed.isEmpty()) return chats;
+
+        for (MessageBucket bucket : mongoTemplate.find(Query.query(Criteria.where("_id").in(bucketed.keySet())), MessageBucket.class)) {
+            bucketed.get(bucket.getId()).setMessages(bucket.getMessages());
+        }
+        return chats;
+    }
+
+    // Fills in every message of a bucketed chat (no-op for embedded chats); only for copying a whole chat
+    public Chat hydrate(Chat chat) {
+        if (!chat.isBucketed()) return chat;
+        List<Message> messages = new ArrayList<>(chat.getMessageCount());
+        Query query = Query.query(Criteria.where("chatId").is(chat.getId())).with(Sort.by("seq"));
+        for (MessageBucket bucket : mongoTemplate.find(query, MessageBucket.class)) {
+            messages.addAll(bucket.getMessages());
+        }
+        chat.setMessages(messages);
+        return chat;
+    }
+}
@@ -3,6 +3,7 @@ package com.alethiq.backend.service;
 import com.alethiq.backend.dto.ChatDTO;
 import com.alethiq.backend.entity.Chat;
 import com.alethiq.backend.entity.Message;
+import com.alethiq.backend.entity.MessageBucket;
 import com.alethiq.backend.entity.User; // Import User
 import com.alethiq.backend.repository.ChatRepository;
 import com.alethiq.backend.repository.UserRepository; // Import UserRepository
@@ -11,8 +12,11 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional; // Good practice
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class ChatService {
@@ -23,33 +27,95 @@ public class ChatService {
     @Autowired
     private UserRepository userRepository; // 🟢 Added to look up User ID from Username
 
+    @Autowired
+    private ChatArchiveService archiveService;
+
+    @Autowired
+    private ChatMessageStore messageStore;
+
     // --- EXISTING METHODS (Kept mostly the same) ---
 
     public Chat createChat(ChatDTO.NewChatRequest request) {
         Chat chat = new Chat();
-        chat.setId(UUID.randomUUID().toString());
+        chat.setId(Chat.newId());
         chat.setUserId(request.userId());
         chat.setTitle(request.content().substring(0, Math.min(request.content().length(), 20)) + "...");
         chat.setCreatedAt(LocalDateTime.now());
-        chat.getMessages().add(new Message("USER", request.content(), LocalDateTime.now()));
-        chat.getMessages().add(new Message("AI", "Dummy Response", LocalDateTime.now()));
-        return repository.save(chat);
+        chat.setLastActivityAt(LocalDateTime.now());
+        chat.setBucketed(messageStore.enabled());
+        chat = repository.save(chat);
+        return messageStore.hydrateLatest(appendMessages(chat, List.of(
+                new Message("USER", request.content(), LocalDateTime.now()),
+                new Message("AI", "Dummy Response", LocalDateTime.now()))));
     }
 
     public Chat addMessage(String chatId, String content) {
-        Chat chat = repository.findById(chatId)
+        Chat chat = findChatMetadata(chatId)
                 .orElseThrow(() -> new RuntimeException("Chat not found!"));
-        chat.getMessages().add(new Message("USER", content, LocalDateTime.now()));
-        chat.getMessages().add(new Message("AI", "Received: " + content, LocalDateTime.now()));
-        return repository.save(chat);
+        appendMessages(chat, List.of(
+                new Message("USER", content, LocalDateTime.now()),
+                new Message("AI", "Received: " + content, LocalDateTime.now())));
+        return messageStore.hydrateLatest(chat);
     }
 
     public List<Chat> getUserChats(String userId) {
-        return repository.findByUserId(userId);
+        // Hot chats first, then anything the tiering job has moved to the archive.
+        // Bucketed chats carry their newest bucket only (latestBucket > 0 means there is older history).
+        List<Chat> chats = new ArrayList<>(messageStore.hydrateAllLatest(repository.findByUserId(userId)));
+        Set<String> hotIds = chats.stream().map(Chat::getId).collect(Collectors.toSet());
+        chats.addAll(archiveService.findUserChats(userId, hotIds));
+        return chats;
     }
 
     public Chat getChatById(String id) {
-        return repository.findById(id).orElseThrow(() -> new RuntimeException("Chat not found"));
+        return findChat(id).orElseThrow(() -> new RuntimeException("Chat not found"));
+    }
+
+    // Chat with its newest bucket of messages; older ones are paged through getMessages
+    public Optional<Chat> findChat(String id) {
+        return findChatMetadata(id).map(messageStore::hydrateLatest);
+    }
+
+    // Hot tier first; an archived chat is promoted back to hot because it is being touched.
+    // Bucketed chats come back without their messages.
+    public Optional<Chat> findChatMetadata(String id) {
+        Optional<Chat> hot = repository.findById(id);
+        return hot.isPresent() ? hot : archiveService.promote(id);
+    }
+
+    // Bucketed chats only touch their latest bucket; embedded chats get a $push on their document.
+    // Neither saves the whole chat, which could bring back a copy the archive job just removed.
+    public Chat appendMessages(Chat chat, List<Message> messages) {
+        messageStore.append(chat, messages);
+        return chat;
+    }
+
+    // One bucket of a chat's history (the latest one if bucket is null)
+    public ChatDTO.MessagePage getMessages(String chatId, Integer bucket) {
+        Chat chat = findChatMetadata(chatId).orElseThrow(() -> new RuntimeException("Chat not found"));
+        int size = messageStore.bucketSize();
+
+        if (chat.isBucketed()) {
+            int seq = checkBucket(bucket, chat.getLatestBucket());
+            MessageBucket found = messageStore.readBucket(chatId, seq);
+            List<Message> messages = found != null ? found.getMessages() : List.of();
+            return new ChatDTO.MessagePage(chatId, seq, chat.getLatestBucket(), messages);
+        }
+
+        // Embedded chats are paged the same way so clients don't have to care
+        List<Message> all = chat.getMessages();
+        int latest = all.isEmpty() ? 0 : (all.size() - 1) / size;
+        int seq = checkBucket(bucket, latest);
+        int from = seq * size;
+        return new ChatDTO.MessagePage(chatId, seq, latest, all.subList(from, Math.min(all.size(), from + size)));
+    }
+
+    private static int checkBucket(Integer bucket, int latest) {
+        if (bucket == null) return latest;
+        if (bucket < 0 || bucket > latest) {
+            throw new IllegalArgumentException("Bucket must be between 0 and " + latest);
+        }
+        return bucket;
     }
 
     // --- 🟢 NEW: THE MISSING METHOD (Fixes Compilation Error) ---
@@ -64,16 +130,35 @@ public class ChatService {
 
         // Create Chat
         Chat chat = new Chat();
-        chat.setId(java.util.UUID.randomUUID().toString());
+        chat.setId(Chat.newId());
         chat.setUserId(String.valueOf(user.getId())); // Store the ID for the database
         
         chat.setTitle(query.length() > 30 ? query.substring(0, 30) + "..." : query);
         chat.setCreatedAt(java.time.LocalDateTime.now());
+        chat.setLastActivityAt(java.time.LocalDateTime.now());
+        chat.setBucketed(messageStore.enabled());
+        chat = repository.save(chat);
 
         // Add Messages
-        chat.getMessages().add(new Message("USER", query, java.time.LocalDateTime.now()));
-        chat.getMessages().add(new Message("AI", answer, java.time.LocalDateTime.now()));
+        return messageStore.hydrateLatest(appendMessages(chat, List.of(
+                new Message("USER", query, java.time.LocalDateTime.now()),
+                new Message("AI", answer, java.time.LocalDateTime.now()))));
+    }
 
-        return repository.save(chat);
+    // Adds a turn to the user's conversation; a new chat if there is none, or it is not theirs
+    @Transactional
+    public Chat saveTurn(String username, String conversationId, String query, String answer) {
+        if (conversationId != null && !conversationId.isEmpty()) {
+            User user = userRepository.findByUsername(username)
+                    .orElseThrow(() -> new RuntimeException("User not found: " + username));
+            Optional<Chat> existing = findChatMetadata(conversationId)
+                    .filter(chat -> String.valueOf(user.getId()).equals(chat.getUserId()));
+            if (existing.isPresent()) {
+                return messageStore.hydrateLatest(appendMessages(existing.get(), List.of(
+                        new Message("USER", query, LocalDateTime.now()),
+                        new Message("AI", answer, LocalDateTime.now()))));
+            }
+        }
+        return saveFullConversation(username, query, answer);
     }
 }
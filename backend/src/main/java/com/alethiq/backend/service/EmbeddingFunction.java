@@ -0,0 +1,14 @@
+package com.alethiq.backend.service;
+
+/**
+ * Turns a query into a fixed-size, L2-normalised vector for the semantic cache.
+ *
+ * {@link HashingEmbeddingFunction} is the built-in, deterministic implementation. A real embedding model
+ * can be plugged in by registering another bean of this type marked {@code @Primary}.
+ */
+public interface EmbeddingFunction {
+
+    int dimension();
+
+    float[] embed(String text);
+}
@@ -0,0 +1,222 @@
+package com.alethiq.backend.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured event log for request, stream and persistence events that stays off the request thread.
+ *
+ * Callers claim a slot in a preallocated ring buffer with a single CAS and copy their fields into it;
+ * a background thread formats the slots as key=value lines and hands them to SLF4J. When the ring is
+ * full the event is dropped and counted instead of blocking the caller. Each event type can be sampled
+ * with {@code alethiq.eventlog.sampling} (e.g. "stream_start=0.1,request=0.5").
+ */
+@Component
+public class EventLog {
+
+    public enum Type {
+        REQUEST, STREAM_START, STREAM_END, STREAM_ERROR, STREAM_CANCEL, PERSIST
+    }
+
+    private static final Logger log = LoggerFactory.getLogger("alethiq.events");
+    private static final int MAX_FIELDS = 4;
+
+    private static final class Slot {
+        // Sequence this slot was last published for; the consumer only reads it when it matches
+        volatile long published = -1;
+        long claimedSeq;
+        Type type;
+        long timestamp;
+        int fieldCount;
+        final String[] keys = new String[MAX_FIELDS];
+        final Object[] values = new Object[MAX_FIELDS];
+    }
+
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+
+    private final double[] sampleRates = new double[Type.values().length];
+    private final LongAdder[] dropped = new LongAdder[Type.values().length];
+    private final LongAdder[] sampledOut = new LongAdder[Type.values().length];
+
+    private volatile boolean running;
+    private Thread appender;
+
+    public EventLog(MeterRegistry meterRegistry,
+                    @Value("${alethiq.eventlog.capacity:8192}") int capacity,
+                    @Value("${alethiq.eventlog.sampling:}") String sampling) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) ring[i] = new Slot();
+
+        for (Type type : Type.values()) {
+            sampleRates[type.ordinal()] = 1.0;
+            dropped[type.ordinal()] = new LongAdder();
+            sampledOut[type.ordinal()] = new LongAdder();
+
+            FunctionCounter.builder("alethiq.eventlog.dropped", dropped[type.ordinal()], LongAdder::doubleValue)
+                    .description("Events dropped because the ring buffer was full")
+                    .tag("type", type.name())
+                    .register(meterRegistry);
+            FunctionCounter.builder("alethiq.eventlog.sampled.out", sampledOut[type.ordinal()], LongAdder::doubleValue)
+                    .tag("type", type.name())
+                    .register(meterRegistry);
+        }
+
+        for (String entry : sampling.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) continue;
+            sampleRates[Type.valueOf(parts[0].trim().toUpperCase()).ordinal()] = Double.parseDouble(parts[1].trim());
+        }
+    }
+
+    // --- Producer side (any thread) ---
+
+    // Returned by claim() for an event that sampling skipped; never written to
+    private static final Slot SAMPLED_OUT = new Slot();
+
+    // Each log() returns false only if the ring was full and the event was dropped (sampled-out counts as logged)
+
+    public boolean log(Type type, String k1, Object v1) {
+        Slot slot = claim(type);
+        if (slot == null) return false;
+        if (slot == SAMPLED_OUT) return true;
+        slot.fieldCount = 1;
+        slot.keys[0] = k1;
+        slot.values[0] = v1;
+        publish(slot);
+        return true;
+    }
+
+    public boolean log(Type type, String k1, Object v1, String k2, Object v2) {
+        Slot slot = claim(type);
+        if (slot == null) return false;
+        if (slot == SAMPLED_OUT) return true;
+        slot.fieldCount = 2;
+        slot.keys[0] = k1;
+        slot.values[0] = v1;
+        slot.keys[1] = k2;
+        slot.values[1] = v2;
+        publish(slot);
+        return true;
+    }
+
+    public boolean log(Type type, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        Slot slot = claim(type);
+        if (slot == null) return false;
+        if (slot == SAMPLED_OUT) return true;
+        slot.fieldCount = 3;
+        slot.keys[0] = k1;
+        slot.values[0] = v1;
+        slot.keys[1] = k2;
+        slot.values[1] = v2;
+        slot.keys[2] = k3;
+        slot.values[2] = v3;
+        publish(slot);
+        return true;
+    }
+
+    public boolean log(Type type, String k1, Object v1, String k2, Object v2, String k3, Object v3, String k4, Object v4) {
+        Slot slot = claim(type);
+        if (slot == null) return false;
+        if (slot == SAMPLED_OUT) return true;
+        slot.fieldCount = 4;
+        slot.keys[0] = k1;
+        slot.values[0] = v1;
+        slot.keys[1] = k2;
+        slot.values[1] = v2;
+        slot.keys[2] = k3;
+        slot.values[2] = v3;
+        slot.keys[3] = k4;
+        slot.values[3] = v4;
+        publish(slot);
+        return true;
+    }
+
+    public long droppedCount(Type type) {
+        return dropped[type.ordinal()].sum();
+    }
+
+    private Slot claim(Type type) {
+        double rate = sampleRates[type.ordinal()];
+        if (rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate) {
+            sampledOut[type.ordinal()].increment();
+            return SAMPLED_OUT;
+        }
+
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - consumed >= ring.length) {
+                dropped[type.ordinal()].increment();
+                return null;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+
+        Slot slot = ring[(int) (seq & mask)];
+        slot.type = type;
+        slot.timestamp = System.currentTimeMillis();
+        // Published in publish(); the volatile write there makes the fields visible to the appender
+        slot.claimedSeq = seq;
+        return slot;
+    }
+
+    private void publish(Slot slot) {
+        slot.published = slot.claimedSeq;
+    }
+
+    // --- Consumer side (appender thread) ---
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        appender = new Thread(this::drainLoop, "event-log-appender");
+        appender.setDaemon(true);
+        appender.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (appender != null) appender.join(2000);
+    }
+
+    private void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        int idle = 0;
+        while (running || consumed < claimed.get()) {
+            long seq = consumed;
+            Slot slot = ring[(int) (seq & mask)];
+            if (slot.published != seq) {
+                // Nothing published yet (or a producer is mid-write): spin briefly, then back off
+                if (!running && seq >= claimed.get()) break;
+                if (++idle > 100) LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+            idle = 0;
+
+            line.setLength(0);
+            line.append("event=").append(slot.type.name().toLowerCase()).append(" ts=").append(slot.timestamp);
+            for (int i = 0; i < slot.fieldCount; i++) {
+                line.append(' ').append(slot.keys[i]).append('=').append(slot.values[i]);
+                slot.values[i] = null;
+            }
+            consumed = seq + 1;
+            log.info(line.toString());
+        }
+    }
+}
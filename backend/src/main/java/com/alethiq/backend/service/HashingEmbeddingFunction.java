@@ -0,0 +1,53 @@
+package com.alethiq.backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Feature-hashing embedding: lower-cased word unigrams and bigrams are hashed into a fixed number of
+ * signed buckets, then the vector is normalised. No model, no network, same output on every run, so
+ * it is good enough for catching near-verbatim paraphrases and fully reproducible in tests.
+ */
+@Component
+public class HashingEmbeddingFunction implements EmbeddingFunction {
+
+    private final int dimension;
+
+    public HashingEmbeddingFunction(@Value("${alethiq.cache.dimension:256}") int dimension) {
+        this.dimension = dimension;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimension];
+        String[] words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+
+        String previous = null;
+        for (String word : words) {
+            if (word.isEmpty()) continue;
+            add(vector, word.hashCode(), 1.0f);
+            if (previous != null) add(vector, (previous + ' ' + word).hashCode(), 0.5f);
+            previous = word;
+        }
+
+        double norm = 0;
+        for (float v : vector) norm += v * v;
+        if (norm > 0) {
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < dimension; i++) vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    private void add(float[] vector, int hash, float weight) {
+        int h = hash * 0x9E3779B1; // spread the bits before bucketing
+        vector[Math.floorMod(h >>> 1, dimension)] += (h & 0x80000000) == 0 ? weight : -weight;
+    }
+}
@@ -0,0 +1,318 @@
+package com.alethiq.backend.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hierarchical navigable small world graph over L2-normalised vectors (similarity = dot product).
+ *
+ * All vectors live in one flat float[] ({@code id * dimension}); each node keeps one int[] of neighbour
+ * ids per level. Each node also carries an int payload that the caller uses to find its answer.
+ * Searches take the read lock, inserts the write lock.
+ */
+class HnswIndex {
+
+    private static final int MAGIC = 0x414C4851; // "ALHQ"
+    private static final int VERSION = 1;
+
+    private final int dimension;
+    private final int m;
+    private final int m0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private float[] vectors;
+    private int[] payloads;
+    private int[][][] links; // [node][level] -> neighbour ids
+    private int count;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    // (similarity, id) pair for the search heaps
+    record Hit(int id, float score) {}
+
+    HnswIndex(int dimension, int m, int efConstruction) {
+        this.dimension = dimension;
+        this.m = m;
+        this.m0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.vectors = new float[dimension * 64];
+        this.payloads = new int[64];
+        this.links = new int[64][][];
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int payload(int id) {
+        return payloads[id];
+    }
+
+    // Copy of a stored vector, for rebuilding the index without re-embedding
+    float[] vector(int id) {
+        lock.readLock().lock();
+        try {
+            return Arrays.copyOfRange(vectors, id * dimension, (id + 1) * dimension);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- Insert ---
+
+    int add(float[] vector, int payload) {
+        lock.writeLock().lock();
+        try {
+            int id = count;
+            ensureCapacity(id + 1);
+            System.arraycopy(vector, 0, vectors, id * dimension, dimension);
+            payloads[id] = payload;
+
+            int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+            links[id] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) links[id][l] = new int[0];
+            count++;
+
+            if (entryPoint < 0) {
+                entryPoint = id;
+                maxLevel = level;
+                return id;
+            }
+
+            // Greedy descent through the levels above the new node's top level
+            int current = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                current = greedyClosest(vector, current, l);
+            }
+
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                Hit[] candidates = searchLayer(vector, current, efConstruction, l);
+                int max = l == 0 ? m0 : m;
+                int[] neighbours = closest(candidates, m);
+                links[id][l] = neighbours;
+                for (int neighbour : neighbours) connect(neighbour, id, l, max);
+                current = candidates[0].id();
+            }
+
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = id;
+            }
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void connect(int node, int neighbour, int level, int max) {
+        int[] existing = links[node][level];
+        int[] grown = Arrays.copyOf(existing, existing.length + 1);
+        grown[existing.length] = neighbour;
+        if (grown.length > max) {
+            // Keep the `max` neighbours closest to this node
+            Hit[] hits = new Hit[grown.length];
+            for (int i = 0; i < grown.length; i++) hits[i] = new Hit(grown[i], similarity(node, grown[i]));
+            Arrays.sort(hits, (a, b) -> Float.compare(b.score(), a.score()));
+            grown = closest(hits, max);
+        }
+        links[node][level] = grown;
+    }
+
+    private static int[] closest(Hit[] sortedHits, int limit) {
+        int n = Math.min(limit, sortedHits.length);
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) ids[i] = sortedHits[i].id();
+        return ids;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= payloads.length) return;
+        int capacity = Math.max(needed, payloads.length * 2);
+        vectors = Arrays.copyOf(vectors, capacity * dimension);
+        payloads = Arrays.copyOf(payloads, capacity);
+        links = Arrays.copyOf(links, capacity);
+    }
+
+    // --- Search ---
+
+    /**
+     * Up to {@code k} nearest nodes, best first.
+     */
+    Hit[] search(float[] query, int k, int ef) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) return new Hit[0];
+            int current = entryPoint;
+            for (int l = maxLevel; l > 0; l--) {
+                current = greedyClosest(query, current, l);
+            }
+            Hit[] hits = searchLayer(query, current, Math.max(ef, k), 0);
+            return hits.length > k ? Arrays.copyOf(hits, k) : hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int best = start;
+        float bestScore = similarity(query, start);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbour : links[best][level]) {
+                float score = similarity(query, neighbour);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = neighbour;
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    // Beam search on one level; returns up to ef hits, best first
+    private Hit[] searchLayer(float[] query, int start, int ef, int level) {
+        BitSet visited = new BitSet(count);
+        PriorityQueue<Hit> candidates = new PriorityQueue<>((a, b) -> Float.compare(b.score(), a.score()));
+        PriorityQueue<Hit> results = new PriorityQueue<>((a, b) -> Float.compare(a.score(), b.score()));
+
+        Hit first = new Hit(start, similarity(query, start));
+        visited.set(start);
+        candidates.add(first);
+        results.add(first);
+
+        while (!candidates.isEmpty()) {
+            Hit candidate = candidates.poll();
+            if (results.size() >= ef && candidate.score() < results.peek().score()) break;
+
+            int[][] nodeLinks = links[candidate.id()];
+            if (level >= nodeLinks.length) continue;
+            for (int neighbour : nodeLinks[level]) {
+                if (visited.get(neighbour)) continue;
+                visited.set(neighbour);
+                float score = similarity(query, neighbour);
+                if (results.size() < ef || score > results.peek().score()) {
+                    Hit hit = new Hit(neighbour, score);
+                    candidates.add(hit);
+                    results.add(hit);
+                    if (results.size() > ef) results.poll();
+                }
+            }
+        }
+
+        Hit[] sorted = results.toArray(new Hit[0]);
+        Arrays.sort(sorted, (a, b) -> Float.compare(b.score(), a.score()));
+        return sorted;
+    }
+
+    private float similarity(float[] query, int id) {
+        float dot = 0;
+        int offset = id * dimension;
+        for (int i = 0; i < dimension; i++) dot += query[i] * vectors[offset + i];
+        return dot;
+    }
+
+    private float similarity(int a, int b) {
+        float dot = 0;
+        int offsetA = a * dimension;
+        int offsetB = b * dimension;
+        for (int i = 0; i < dimension; i++) dot += vectors[offsetA + i] * vectors[offsetB + i];
+        return dot;
+    }
+
+    // --- Persistence (memory-mapped) ---
+
+    /**
+     * Writes a snapshot to {@code file} through a memory-mapped temp file, then swaps it in atomically.
+     */
+    void save(Path file) throws IOException {
+        lock.readLock().lock();
+        try {
+            long size = 7L * Integer.BYTES + (long) count * dimension * Float.BYTES + (long) count * Integer.BYTES;
+            for (int id = 0; id < count; id++) {
+                size += Integer.BYTES;
+                for (int[] level : links[id]) size += (long) (1 + level.length) * Integer.BYTES;
+            }
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                out.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(m)
+                        .putInt(count).putInt(entryPoint).putInt(maxLevel);
+                out.asFloatBuffer().put(vectors, 0, count * dimension);
+                out.position(out.position() + count * dimension * Float.BYTES);
+                out.asIntBuffer().put(payloads, 0, count);
+                out.position(out.position() + count * Integer.BYTES);
+                for (int id = 0; id < count; id++) {
+                    out.putInt(links[id].length);
+                    for (int[] level : links[id]) {
+                        out.putInt(level.length);
+                        for (int neighbour : level) out.putInt(neighbour);
+                    }
+                }
+                out.force();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Maps a snapshot written by {@link #save} and bulk-copies it into a fresh index.
+     */
+    static HnswIndex load(Path file, int dimension, int efConstruction) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) throw new IOException("Not a semantic cache index: " + file);
+            int storedDimension = in.getInt();
+            if (storedDimension != dimension) {
+                throw new IOException("Index dimension " + storedDimension + " does not match embedding dimension " + dimension);
+            }
+
+            HnswIndex index = new HnswIndex(dimension, in.getInt(), efConstruction);
+            int count = in.getInt();
+            index.ensureCapacity(count);
+            index.count = count;
+            index.entryPoint = in.getInt();
+            index.maxLevel = in.getInt();
+
+            in.asFloatBuffer().get(index.vectors, 0, count * dimension);
+            in.position(in.position() + count * dimension * Float.BYTES);
+            in.asIntBuffer().get(index.payloads, 0, count);
+            in.position(in.position() + count * Integer.BYTES);
+            for (int id = 0; id < count; id++) {
+                int levels = in.getInt();
+                index.links[id] = new int[levels][];
+                for (int l = 0; l < levels; l++) {
+                    int[] neighbours = new int[in.getInt()];
+                    for (int i = 0; i < neighbours.length; i++) neighbours[i] = in.getInt();
+                    index.links[id][l] = neighbours;
+                }
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.alethiq.backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-node replay buffer: a bounded replay sink per stream, swept once its grace period is over.
+ */
+@Component
+public class InMemoryStreamReplayBuffer implements StreamReplayBuffer {
+
+    private final Map<String, Entry> streams = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final long graceMillis;
+
+    public InMemoryStreamReplayBuffer(@Value("${alethiq.stream.replay-capacity:2048}") int capacity,
+                                      @Value("${alethiq.stream.resume-grace:30s}") Duration grace) {
+        this.capacity = capacity;
+        this.graceMillis = grace.toMillis();
+    }
+
+    private static class Entry {
+        // Bounded: once more than `capacity` events exist, the oldest are no longer replayable.
+        final Sinks.Many<Event> sink;
+        final AtomicLong seq = new AtomicLong();
+        volatile boolean done;
+        volatile long expiresAt; // 0 = retained
+
+        Entry(int capacity) {
+            this.sink = Sinks.many().replay().limit(capacity);
+        }
+    }
+
+    @Override
+    public void open(String streamId) {
+        streams.put(streamId, new Entry(capacity));
+    }
+
+    @Override
+    public Event append(String streamId, StreamEvent event) {
+        Entry entry = require(streamId);
+        Event numbered = new Event(entry.seq.incrementAndGet(), event);
+        entry.sink.tryEmitNext(numbered);
+        return numbered;
+    }
+
+    @Override
+    public void complete(String streamId) {
+        Entry entry = streams.get(streamId);
+        if (entry == null) return;
+        entry.done = true;
+        entry.sink.tryEmitComplete();
+    }
+
+    @Override
+    public void fail(String streamId, Throwable error) {
+        Entry entry = streams.get(streamId);
+        if (entry == null) return;
+        entry.done = true;
+        entry.sink.tryEmitError(error);
+    }
+
+    @Override
+    public Flux<Event> tail(String streamId, long afterSeq) {
+        // The replay starts at the oldest retained event: if that is already past afterSeq + 1, there is a gap
+        return Flux.defer(() -> require(streamId).sink.asFlux())
+                .switchOnFirst((first, events) -> first.hasValue() && first.get().seq() > afterSeq + 1
+                        ? Flux.error(new EvictedException(streamId, afterSeq))
+                        : events)
+                .filter(event -> event.seq() > afterSeq);
+    }
+
+    @Override
+    public boolean contains(String streamId) {
+        return streams.containsKey(streamId);
+    }
+
+    @Override
+    public void release(String streamId) {
+        Entry entry = streams.get(streamId);
+        if (entry != null) entry.expiresAt = System.currentTimeMillis() + graceMillis;
+    }
+
+    @Override
+    public void retain(String streamId) {
+        Entry entry = streams.get(streamId);
+        // A finished stream keeps its expiry, otherwise replaying it would pin it forever
+        if (entry != null && !entry.done) entry.expiresAt = 0;
+    }
+
+    @Scheduled(fixedDelayString = "${alethiq.stream.sweep-interval:5000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        streams.entrySet().removeIf(e -> e.getValue().expiresAt != 0 && e.getValue().expiresAt < now);
+    }
+
+    private Entry require(String streamId) {
+        Entry entry = streams.get(streamId);
+        if (entry == null) throw new RuntimeException("Stream not found or expired: " + streamId);
+        return entry;
+    }
+}
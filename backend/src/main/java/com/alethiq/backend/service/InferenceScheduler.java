@@ -0,0 +1,321 @@
+package com.alethiq.backend.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Admission control for calls to the inference service.
+ *
+ * Each mode ("fast", "deep") has its own queue and the modes share the backend by weight (stride
+ * scheduling). Inside a mode, users are served round-robin so one heavy user cannot starve the rest.
+ * The number of calls in flight is capped by an {@link AdaptiveConcurrencyLimit} fed with the time to
+ * the first answer token (search and model time included; the status frames before it don't count),
+ * measured against the target of the call's mode, so when the model server slows down the waiting
+ * happens here, with a bounded wait, instead of inside an overloaded backend. Signed-in users additionally have a quota of
+ * calls in flight ({@code per-user-limit}); anonymous traffic shares one key and is exempt.
+ */
+@Service
+public class InferenceScheduler {
+
+    public static final String FAST = "fast";
+    public static final String DEEP = "deep";
+    // Not a queue of its own: AiStreamService runs it as one fast and one deep call
+    public static final String SPECULATIVE = "speculative";
+    public static final String ANONYMOUS = "Anonymous";
+
+    private final AdaptiveConcurrencyLimit limit;
+    private final Map<String, Long> targetLatencyNanos = new HashMap<>();
+    private final Map<String, ModeQueue> queues = new LinkedHashMap<>();
+    private final Duration maxWait;
+    private final int maxQueued;
+    private final int perUserLimit;
+    private final Map<String, Integer> userInFlight = new HashMap<>();
+
+    private int inFlight;
+    private int queued;
+    private double virtualTime;
+
+    public InferenceScheduler(MeterRegistry meterRegistry,
+                              @Value("${alethiq.scheduler.initial-limit:8}") int initialLimit,
+                              @Value("${alethiq.scheduler.min-limit:2}") int minLimit,
+                              @Value("${alethiq.scheduler.max-limit:64}") int maxLimit,
+                              @Value("${alethiq.scheduler.fast-target-latency:3s}") Duration fastTargetLatency,
+                              @Value("${alethiq.scheduler.deep-target-latency:10s}") Duration deepTargetLatency,
+                              @Value("${alethiq.scheduler.fast-weight:3}") int fastWeight,
+                              @Value("${alethiq.scheduler.deep-weight:1}") int deepWeight,
+                              @Value("${alethiq.scheduler.max-wait:15s}") Duration maxWait,
+                              @Value("${alethiq.scheduler.max-queued:500}") int maxQueued,
+                              @Value("${alethiq.scheduler.per-user-limit:4}") int perUserLimit) {
+        this.limit = new AdaptiveConcurrencyLimit(initialLimit, minLimit, maxLimit, 0.9);
+        targetLatencyNanos.put(FAST, fastTargetLatency.toNanos());
+        targetLatencyNanos.put(DEEP, deepTargetLatency.toNanos());
+        this.maxWait = maxWait;
+        this.maxQueued = maxQueued;
+        this.perUserLimit = perUserLimit;
+        queues.put(FAST, new ModeQueue(fastWeight));
+        queues.put(DEEP, new ModeQueue(deepWeight));
+
+        Gauge.builder("alethiq.scheduler.limit", this, s -> s.currentLimit()).register(meterRegistry);
+        Gauge.builder("alethiq.scheduler.inflight", this, s -> s.inFlight()).register(meterRegistry);
+        for (Map.Entry<String, ModeQueue> e : queues.entrySet()) {
+            ModeQueue queue = e.getValue();
+            Gauge.builder("alethiq.scheduler.queued", this, s -> s.queuedIn(queue))
+                    .tag("mode", e.getKey())
+                    .register(meterRegistry);
+        }
+    }
+
+    public static String normalizeMode(String mode) {
+        return DEEP.equalsIgnoreCase(mode) ? DEEP : FAST;
+    }
+
+    /**
+     * Runs {@code call} once a slot is free. The slot is held until the returned Flux terminates or is cancelled.
+     * Latency is sampled at the first item.
+     */
+    public <T> Flux<T> schedule(String mode, String userKey, Supplier<Flux<T>> call) {
+        return schedule(mode, userKey, call, item -> true);
+    }
+
+    /**
+     * Same, with latency sampled at the first item that is a real response ({@code firstResponse}), or
+     * when the call completes without one.
+     */
+    public <T> Flux<T> schedule(String mode, String userKey, Supplier<Flux<T>> call, Predicate<? super T> firstResponse) {
+        String queueMode = normalizeMode(mode);
+        return Mono.<Ticket>create(sink -> enqueue(new Ticket(queueMode, userKey, sink)))
+                .timeout(maxWait)
+                .onErrorMap(TimeoutException.class, e -> new RuntimeException("Inference backend is busy, please try again shortly"))
+                .flatMapMany(ticket -> {
+                    // Lost the race against a cancel that already gave the slot back
+                    if (!ticket.claimed.compareAndSet(false, true)) return Flux.empty();
+                    return Flux.defer(call)
+                            .doOnNext(item -> {
+                                if (firstResponse.test(item)) sample(ticket, true);
+                            })
+                            .doOnComplete(() -> sample(ticket, true))
+                            .doOnError(error -> sample(ticket, false))
+                            .doFinally(signal -> release(ticket));
+                });
+    }
+
+    // --- Queueing ---
+
+    private static final class Ticket {
+        static final int WAITING = 0;
+        static final int GRANTED = 1;
+        static final int CANCELLED = 2;
+
+        final String mode;
+        final String user;
+        final MonoSink<Ticket> sink;
+        final AtomicInteger state = new AtomicInteger(WAITING);
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final AtomicBoolean sampled = new AtomicBoolean();
+        final AtomicBoolean released = new AtomicBoolean();
+        volatile long grantedAt;
+
+        Ticket(String mode, String user, MonoSink<Ticket> sink) {
+            this.mode = mode;
+            this.user = user;
+            this.sink = sink;
+        }
+    }
+
+    // Per-mode queue with one FIFO per user, served round-robin.
+    private static final class ModeQueue {
+        final int weight;
+        final Map<String, ArrayDeque<Ticket>> byUser = new HashMap<>();
+        final ArrayDeque<String> rotation = new ArrayDeque<>();
+        double pass;
+        int size;
+
+        ModeQueue(int weight) {
+            this.weight = Math.max(1, weight);
+        }
+
+        boolean isEmpty() {
+            return rotation.isEmpty();
+        }
+
+        void add(Ticket ticket) {
+            ArrayDeque<Ticket> tickets = byUser.computeIfAbsent(ticket.user, u -> {
+                rotation.add(u);
+                return new ArrayDeque<>();
+            });
+            tickets.add(ticket);
+            size++;
+        }
+
+        // Next ticket of the first user in rotation order that is allowed to start another call
+        Ticket poll(Predicate<String> eligible) {
+            for (int i = 0, n = rotation.size(); i < n; i++) {
+                String user = rotation.poll();
+                if (!eligible.test(user)) {
+                    rotation.add(user);
+                    continue;
+                }
+                ArrayDeque<Ticket> tickets = byUser.get(user);
+                Ticket ticket = tickets.poll();
+                if (tickets.isEmpty()) byUser.remove(user);
+                else rotation.add(user);
+                size--;
+                return ticket;
+            }
+            return null;
+        }
+
+        // A ticket cancelled while waiting leaves the queue straight away, so it neither counts
+        // towards max-queued nor advances this mode's pass when it would have been polled
+        boolean remove(Ticket ticket) {
+            ArrayDeque<Ticket> tickets = byUser.get(ticket.user);
+            if (tickets == null || !tickets.remove(ticket)) return false;
+            if (tickets.isEmpty()) {
+                byUser.remove(ticket.user);
+                rotation.remove(ticket.user);
+            }
+            size--;
+            return true;
+        }
+    }
+
+    private void enqueue(Ticket ticket) {
+        ticket.sink.onCancel(() -> onCancel(ticket));
+
+        boolean rejected;
+        synchronized (this) {
+            if (ticket.state.get() != Ticket.WAITING) return; // Cancelled before it was queued
+            rejected = queued >= maxQueued;
+            if (!rejected) {
+                ModeQueue queue = queues.get(ticket.mode);
+                // A mode coming back from idle must not get a burst for the time it was away
+                if (queue.isEmpty()) queue.pass = Math.max(queue.pass, virtualTime);
+                queue.add(ticket);
+                queued++;
+            }
+        }
+        if (rejected) {
+            ticket.sink.error(new RuntimeException("Inference queue is full, please try again shortly"));
+            return;
+        }
+        drain();
+    }
+
+    private void onCancel(Ticket ticket) {
+        synchronized (this) {
+            // Under the lock, so drain() never polls a ticket that is being cancelled
+            if (ticket.state.compareAndSet(Ticket.WAITING, Ticket.CANCELLED)) {
+                if (queues.get(ticket.mode).remove(ticket)) queued--;
+                return;
+            }
+        }
+        if (ticket.state.get() == Ticket.GRANTED && ticket.claimed.compareAndSet(false, true)) {
+            // Granted, but the subscriber went away before it could use the slot
+            release(ticket);
+        }
+    }
+
+    private void drain() {
+        List<Ticket> granted = new ArrayList<>();
+        synchronized (this) {
+            while (inFlight < limit.get()) {
+                Ticket ticket = pollNext();
+                if (ticket == null) break;
+                if (!ticket.state.compareAndSet(Ticket.WAITING, Ticket.GRANTED)) continue;
+                queued--;
+                inFlight++;
+                userInFlight.merge(ticket.user, 1, Integer::sum);
+                ticket.grantedAt = System.nanoTime();
+                granted.add(ticket);
+            }
+        }
+        // Outside the lock: success() runs the caller's subscription inline
+        for (Ticket ticket : granted) ticket.sink.success(ticket);
+    }
+
+    // Stride scheduling across modes: the non-empty queue with the lowest pass goes next,
+    // unless every user waiting in it is at quota.
+    private Ticket pollNext() {
+        List<ModeQueue> candidates = new ArrayList<>(queues.size());
+        for (ModeQueue queue : queues.values()) {
+            if (!queue.isEmpty()) candidates.add(queue);
+        }
+        candidates.sort(Comparator.comparingDouble(queue -> queue.pass));
+
+        for (ModeQueue queue : candidates) {
+            Ticket ticket = queue.poll(this::underQuota);
+            if (ticket == null) continue;
+            virtualTime = queue.pass;
+            queue.pass += 1.0 / queue.weight;
+            return ticket;
+        }
+        return null;
+    }
+
+    private boolean underQuota(String user) {
+        return ANONYMOUS.equals(user) || userInFlight.getOrDefault(user, 0) < perUserLimit;
+    }
+
+    private void sample(Ticket ticket, boolean success) {
+        if (!ticket.sampled.compareAndSet(false, true)) return;
+        long latency = System.nanoTime() - ticket.grantedAt;
+        synchronized (this) {
+            limit.onSample(latency, targetLatencyNanos.get(ticket.mode), success);
+        }
+    }
+
+    private void release(Ticket ticket) {
+        if (!ticket.released.compareAndSet(false, true)) return;
+        synchronized (this) {
+            inFlight--;
+            userInFlight.computeIfPresent(ticket.user, (user, count) -> count > 1 ? count - 1 : null);
+        }
+        drain();
+    }
+
+    // --- Stats ---
+
+    public synchronized int currentLimit() {
+        return limit.get();
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int queued() {
+        return queued;
+    }
+
+    // Every slot taken or someone already waiting: optional work (speculative deep calls) should back off
+    public synchronized boolean isSaturated() {
+        return queued > 0 || inFlight >= limit.get();
+    }
+
+    public int perUserLimit() {
+        return perUserLimit;
+    }
+
+    private synchronized int queuedIn(ModeQueue queue) {
+        return queue.size;
+    }
+}
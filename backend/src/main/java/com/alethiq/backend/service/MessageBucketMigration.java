@@ -0,0 +1,80 @@
+package com.alethiq.backend.service;
+
+import com.alethiq.backend.entity.Chat;
+import com.alethiq.backend.entity.MessageBucket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Online migration of embedded chats to bucketed storage.
+ *
+ * Streams the chats that are not bucketed yet through one cursor and converts them batch by batch with
+ * a pause in between, so it can run against the live database. Chats that change while being copied
+ * are skipped and picked up again on the next run.
+ */
+@Service
+public class MessageBucketMigration {
+
+    private final MongoTemplate mongoTemplate;
+    private final ChatMessageStore messageStore;
+    private final EventLog eventLog;
+    private final int batchSize;
+    private final Duration batchPause;
+
+    private volatile boolean indexed;
+
+    public MessageBucketMigration(MongoTemplate mongoTemplate,
+                                  ChatMessageStore messageStore,
+                                  EventLog eventLog,
+                                  @Value("${alethiq.chat.migration.batch-size:200}") int batchSize,
+                                  @Value("${alethiq.chat.migration.batch-pause:1s}") Duration batchPause) {
+        this.mongoTemplate = mongoTemplate;
+        this.messageStore = messageStore;
+        this.eventLog = eventLog;
+        this.batchSize = batchSize;
+        this.batchPause = batchPause;
+    }
+
+    @Scheduled(fixedDelayString = "${alethiq.chat.migration.interval:600000}", initialDelayString = "${alethiq.chat.migration.initial-delay:60000}")
+    public void migrate() throws InterruptedException {
+        if (!messageStore.enabled()) return;
+        ensureIndex();
+
+        Query pending = new Query(Criteria.where("bucketed").ne(true)).cursorBatchSize(batchSize);
+        int converted = 0;
+        int skipped = 0;
+        int inBatch = 0;
+        try (Stream<Chat> stream = mongoTemplate.stream(pending, Chat.class)) {
+            Iterator<Chat> chats = stream.iterator();
+            while (chats.hasNext()) {
+                if (messageStore.convert(chats.next())) converted++;
+                else skipped++;
+
+                if (++inBatch == batchSize) {
+                    inBatch = 0;
+                    Thread.sleep(batchPause.toMillis());
+                }
+            }
+        }
+        if (converted + skipped > 0) {
+            eventLog.log(EventLog.Type.PERSIST, "op", "bucket-migration", "converted", converted, "skipped", skipped);
+        }
+    }
+
+    private void ensureIndex() {
+        if (indexed) return;
+        mongoTemplate.indexOps(MessageBucket.class)
+                .createIndex(new Index().on("chatId", Sort.Direction.ASC).on("seq", Sort.Direction.ASC).named("chat_seq"));
+        indexed = true;
+    }
+}
@@ -0,0 +1,282 @@
+package com.alethiq.backend.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.util.context.Context;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples the upstream generation from the HTTP connection that asked for it.
+ *
+ * The upstream Flux is subscribed once and written into the {@link StreamReplayBuffer}; clients only
+ * ever read from the buffer. Every SSE event carries the id "streamId:seq", so a client that drops can
+ * come back with Last-Event-ID and continue from the next event instead of re-running the whole query.
+ *
+ * When the last client goes away, the upstream exchange is kept alive for {@code detach-timeout} in case
+ * the client reconnects, then cancelled so the inference service stops generating and the pooled
+ * connection is released. Heartbeat comments make sure the servlet container notices a closed tab even
+ * while the upstream is quiet (searching, thinking...).
+ *
+ * Every stream is also written to the {@link StreamJournal}. On shutdown, streams that still have a
+ * reader get {@code drain-timeout} to finish; the rest are left open in the journal for the next process.
+ */
+@Service
+public class ResumableStreamService {
+
+    // Sent instead of the replay when the events after the client's cursor have been evicted; no id, so the
+    // client's Last-Event-ID stays where it was
+    public static final String RESET_EVENT = "reset";
+    private static final byte[] RESET_DATA = "{\"reset\": \"evicted\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final AiStreamService aiStreamService;
+    private final StreamReplayBuffer buffer;
+    private final StreamJournal journal;
+    private final EventLog eventLog;
+    private final Duration detachTimeout;
+    private final Duration heartbeat;
+    private final Duration drainTimeout;
+
+    private final Counter cancelledStreams;
+    private final Counter orphanedTokens;
+    private final Timer orphanedFor;
+    private final Timer cancelToRelease;
+
+    private final Counter resets;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public ResumableStreamService(AiStreamService aiStreamService,
+                                  StreamReplayBuffer buffer,
+                                  StreamJournal journal,
+                                  EventLog eventLog,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${alethiq.stream.detach-timeout:10s}") Duration detachTimeout,
+                                  @Value("${alethiq.stream.heartbeat:15s}") Duration heartbeat,
+                                  @Value("${alethiq.stream.drain-timeout:20s}") Duration drainTimeout) {
+        this.aiStreamService = aiStreamService;
+        this.buffer = buffer;
+        this.journal = journal;
+        this.eventLog = eventLog;
+        this.detachTimeout = detachTimeout;
+        this.heartbeat = heartbeat;
+        this.drainTimeout = drainTimeout;
+
+        this.cancelledStreams = Counter.builder("alethiq.stream.cancelled")
+                .description("Upstream generations cancelled because no client was left to read them")
+                .register(meterRegistry);
+        this.orphanedTokens = Counter.builder("alethiq.stream.orphaned.tokens")
+                .description("Answer tokens generated between the last client leaving and the cancel, on streams that were then cancelled")
+                .register(meterRegistry);
+        // Bounded by detach-timeout (close to 0 for the stop button)
+        this.orphanedFor = Timer.builder("alethiq.stream.orphaned.duration")
+                .description("Time an upstream generation kept running after its last client left, until it was cancelled")
+                .register(meterRegistry);
+        this.cancelToRelease = Timer.builder("alethiq.stream.cancel.release")
+                .description("Time from cancelling an upstream generation until its connection was closed or back in the pool")
+                .register(meterRegistry);
+        this.resets = Counter.builder("alethiq.stream.resume.reset")
+                .description("Resumes answered with a reset because the events after the client's cursor had been evicted")
+                .register(meterRegistry);
+    }
+
+    private static class Session {
+        final String owner;
+        final AtomicInteger clients = new AtomicInteger();
+        // Tokens received since the last client left; wasted work if the stream ends up cancelled
+        final AtomicLong orphanTokens = new AtomicLong();
+        final AtomicLong cancelledAt = new AtomicLong(); // nanoTime of the cancel, 0 until then
+        volatile Disposable upstream;
+        volatile Disposable pendingCancel;
+        volatile long detachedAt; // nanoTime, 0 while a client is attached
+        volatile boolean finished;
+
+        Session(String owner) {
+            this.owner = owner;
+        }
+    }
+
+    // Parsed form of a Last-Event-ID header ("streamId:seq").
+    public record Cursor(String streamId, long seq) {
+
+        public static Cursor parse(String lastEventId) {
+            if (lastEventId == null || lastEventId.isBlank()) return null;
+            int sep = lastEventId.lastIndexOf(':');
+            if (sep <= 0) return null;
+            try {
+                return new Cursor(lastEventId.substring(0, sep), Long.parseLong(lastEventId.substring(sep + 1)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    public String start(String query, String username, String mode, String conversationId) {
+        String streamId = UUID.randomUUID().toString();
+        Session session = new Session(username);
+        buffer.open(streamId);
+        sessions.put(streamId, session);
+        StreamJournal.Handle journaled = journal.begin(streamId, username, mode, query, conversationId);
+
+        // Subscribed here, not by the client, so generation carries on while the client reconnects
+        session.upstream = aiStreamService.streamAnswer(query, username, mode)
+                .doOnNext(event -> {
+                    journaled.record(event);
+                    if (session.detachedAt != 0 && event.type() == StreamEvent.Type.TOKEN) session.orphanTokens.incrementAndGet();
+                })
+                .doFinally(signal -> {
+                    session.finished = true;
+                    journaled.end();
+                    if (signal == SignalType.CANCEL && session.detachedAt != 0) {
+                        orphanedFor.record(System.nanoTime() - session.detachedAt, TimeUnit.NANOSECONDS);
+                    }
+                })
+                // Called by the WebClient connector when the connection is closed or pooled (speculative: twice)
+                .contextWrite(Context.of(AiStreamService.ON_CONNECTION_RELEASE, (Runnable) () -> onConnectionReleased(session)))
+                .subscribe(
+                        event -> buffer.append(streamId, event),
+                        error -> {
+                            buffer.fail(streamId, error);
+                            buffer.release(streamId);
+                        },
+                        () -> {
+                            buffer.complete(streamId);
+                            buffer.release(streamId);
+                        });
+        return streamId;
+    }
+
+    public boolean canResume(Cursor cursor, String username) {
+        if (cursor == null || !buffer.contains(cursor.streamId())) return false;
+        Session session = sessions.get(cursor.streamId());
+        return session != null && session.owner.equals(username);
+    }
+
+    public Flux<ServerSentEvent<byte[]>> attach(String streamId, long afterSeq, String username) {
+        Session session = sessions.get(streamId);
+        if (session == null || !session.owner.equals(username)) {
+            return Flux.error(new RuntimeException("Stream not found or expired: " + streamId));
+        }
+
+        // The upstream payload bytes go out untouched, no String round trip
+        Flux<ServerSentEvent<byte[]>> events = buffer.tail(streamId, afterSeq)
+                .map(numbered -> ServerSentEvent.<byte[]>builder()
+                        .id(streamId + ":" + numbered.seq())
+                        .data(numbered.event().data())
+                        .build())
+                // Too far behind to continue: tell the client to drop its partial answer and fetch it again
+                .onErrorResume(StreamReplayBuffer.EvictedException.class, e -> {
+                    resets.increment();
+                    return Flux.just(ServerSentEvent.<byte[]>builder()
+                            .event(RESET_EVENT)
+                            .data(RESET_DATA)
+                            .build());
+                });
+
+        return events
+                .publish(shared -> Flux.merge(shared, Flux.interval(heartbeat)
+                        .map(tick -> ServerSentEvent.<byte[]>builder().comment("keepalive").build())
+                        .takeUntilOther(shared.ignoreElements())))
+                .doOnSubscribe(s -> onAttach(streamId, session))
+                .doFinally(signal -> onDetach(streamId, session));
+    }
+
+    /**
+     * Cancels the upstream generation straight away (stop button). Returns false if the stream is unknown.
+     */
+    public boolean cancel(String streamId, String username) {
+        Session session = sessions.get(streamId);
+        if (session == null || !session.owner.equals(username)) return false;
+        if (session.detachedAt == 0) session.detachedAt = System.nanoTime();
+        cancelUpstream(streamId, session);
+        return true;
+    }
+
+    private void onAttach(String streamId, Session session) {
+        session.clients.incrementAndGet();
+        Disposable pending = session.pendingCancel;
+        if (pending != null) pending.dispose();
+        session.detachedAt = 0;
+        session.orphanTokens.set(0);
+        buffer.retain(streamId);
+    }
+
+    private void onDetach(String streamId, Session session) {
+        if (session.clients.decrementAndGet() > 0) return;
+        buffer.release(streamId);
+        if (session.finished) return;
+
+        session.detachedAt = System.nanoTime();
+        session.pendingCancel = Mono.delay(detachTimeout)
+                .subscribe(tick -> {
+                    if (session.clients.get() == 0) cancelUpstream(streamId, session);
+                });
+    }
+
+    private void cancelUpstream(String streamId, Session session) {
+        Disposable upstream = session.upstream;
+        if (session.finished || upstream == null || upstream.isDisposed()) return;
+
+        cancelledStreams.increment();
+        orphanedTokens.increment(session.orphanTokens.get());
+        eventLog.log(EventLog.Type.STREAM_CANCEL, "stream", streamId, "orphanTokens", session.orphanTokens.get());
+        session.cancelledAt.compareAndSet(0, System.nanoTime());
+        upstream.dispose();
+        buffer.complete(streamId);
+        buffer.release(streamId);
+    }
+
+    // First release after a cancel only; releases of streams that ran to completion are not interesting here
+    private void onConnectionReleased(Session session) {
+        long cancelledAt = session.cancelledAt.get();
+        if (cancelledAt > 0 && session.cancelledAt.compareAndSet(cancelledAt, -1)) {
+            cancelToRelease.record(System.nanoTime() - cancelledAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Shutdown hook (runs after the web server's graceful shutdown): waits up to {@code drain-timeout}
+     * for streams that still have a reader, then stops the rest without marking them ended, so the next
+     * process recovers them from the journal.
+     */
+    @PreDestroy
+    public void drain() throws InterruptedException {
+        long deadline = System.nanoTime() + drainTimeout.toNanos();
+        while (System.nanoTime() < deadline && sessions.values().stream().anyMatch(s -> !s.finished && s.clients.get() > 0)) {
+            Thread.sleep(100);
+        }
+
+        journal.seal();
+        int handedOver = 0;
+        for (Session session : sessions.values()) {
+            Disposable upstream = session.upstream;
+            if (session.finished || upstream == null) continue;
+            upstream.dispose();
+            handedOver++;
+        }
+        if (handedOver > 0) eventLog.log(EventLog.Type.STREAM_CANCEL, "op", "shutdown", "journaled", handedOver);
+    }
+
+    // Drops sessions whose buffer has been swept.
+    @Scheduled(fixedDelayString = "${alethiq.stream.sweep-interval:5000}")
+    public void sweep() {
+        sessions.keySet().removeIf(streamId -> !buffer.contains(streamId));
+    }
+}
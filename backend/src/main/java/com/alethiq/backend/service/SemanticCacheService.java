@@ -0,0 +1,357 @@
+package com.alethiq.backend.service;
+
+import com.alethiq.backend.entity.Chat;
+import com.alethiq.backend.entity.Message;
+import com.alethiq.backend.entity.MessageBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Answers paraphrased questions from earlier answers instead of going back to the inference service.
+ *
+ * Each completed query is embedded with the pluggable {@link EmbeddingFunction} and added to an
+ * in-process {@link HnswIndex}; a new query whose nearest neighbour (same mode) scores above
+ * {@code similarity-threshold} gets the stored answer. The index and the answers are snapshotted to
+ * memory-mapped files in {@code alethiq.cache.dir} so a restart reloads them without re-embedding.
+ * On the very first start the index is seeded from the question/answer pairs already stored
+ * ({@code chats} and {@code chat_messages}).
+ *
+ * Answers expire after {@code alethiq.cache.ttl}. HNSW has no delete, so expired nodes stay in the
+ * graph (skipped on lookup) until the snapshot job finds most of the index dead and rebuilds it from
+ * the stored vectors. Off by default: the built-in hashing embedding only catches near-verbatim repeats.
+ */
+@Service
+public class SemanticCacheService {
+
+    private static final Logger log = LoggerFactory.getLogger(SemanticCacheService.class);
+
+    private static final String INDEX_FILE = "semantic-cache.idx";
+    private static final String ANSWERS_FILE = "semantic-cache.answers";
+    private static final int ANSWERS_MAGIC = 0x414C4841; // "ALHA"
+    private static final int ANSWERS_VERSION = 2;
+
+    private record Entry(String mode, String answer, long cachedAt) {}
+
+    // The index and the answers its payloads point into; always read, written and swapped as a pair
+    private record Store(HnswIndex index, List<Entry> entries) {}
+
+    private final EmbeddingFunction embeddings;
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final double threshold;
+    private final int efSearch;
+    private final int maxEntries;
+    private final Duration ttl;
+    private final Path dir;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    // Writers (put, snapshot, compaction) hold this while they touch the store; lookups never wait on it
+    private final Object writeLock = new Object();
+    private volatile Store store;
+    private volatile boolean dirty;
+    private volatile boolean seeded;
+
+    public SemanticCacheService(EmbeddingFunction embeddings,
+                                MongoTemplate mongoTemplate,
+                                MeterRegistry meterRegistry,
+                                @Value("${alethiq.cache.enabled:false}") boolean enabled,
+                                @Value("${alethiq.cache.similarity-threshold:0.92}") double threshold,
+                                @Value("${alethiq.cache.ef-search:64}") int efSearch,
+                                @Value("${alethiq.cache.max-entries:200000}") int maxEntries,
+                                @Value("${alethiq.cache.ttl:24h}") Duration ttl,
+                                @Value("${alethiq.cache.dir:${java.io.tmpdir}/alethiq-cache}") String dir) {
+        this.embeddings = embeddings;
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.efSearch = efSearch;
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.dir = Path.of(dir);
+        this.store = new Store(newIndex(), new ArrayList<>());
+
+        this.hits = Counter.builder("alethiq.cache.semantic").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("alethiq.cache.semantic").tag("result", "miss").register(meterRegistry);
+    }
+
+    // --- Lookup / insert ---
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public Optional<String> lookup(String query, String mode) {
+        if (!enabled || query == null || query.isBlank()) return Optional.empty();
+
+        Store current = store;
+        float[] vector = embeddings.embed(query);
+        long oldest = oldestLive();
+        for (HnswIndex.Hit hit : current.index().search(vector, 4, efSearch)) {
+            if (hit.score() < threshold) break;
+            Entry entry = entry(current, current.index().payload(hit.id()));
+            if (entry != null && entry.cachedAt() >= oldest && entry.mode().equals(mode)) {
+                hits.increment();
+                return Optional.of(entry.answer());
+            }
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    public void put(String query, String mode, String answer) {
+        if (!enabled || query == null || query.isBlank() || answer == null || answer.isBlank()) return;
+        if (store.index().size() >= maxEntries) return;
+
+        float[] vector = embeddings.embed(query);
+        synchronized (writeLock) {
+            Store current = store;
+            // Someone else already cached (nearly) the same question, and it is still fresh
+            HnswIndex.Hit[] nearest = current.index().search(vector, 1, efSearch);
+            if (nearest.length > 0 && nearest[0].score() >= 0.999f) {
+                Entry existing = entry(current, current.index().payload(nearest[0].id()));
+                if (existing != null && existing.cachedAt() >= oldestLive()) return;
+            }
+
+            // Answer and node go in together, so a snapshot never sees one without the other
+            int payload;
+            synchronized (current.entries()) {
+                payload = current.entries().size();
+                current.entries().add(new Entry(mode, answer, System.currentTimeMillis()));
+            }
+            current.index().add(vector, payload);
+        }
+        dirty = true;
+    }
+
+    private static Entry entry(Store store, int payload) {
+        synchronized (store.entries()) {
+            return payload < store.entries().size() ? store.entries().get(payload) : null;
+        }
+    }
+
+    private long oldestLive() {
+        return System.currentTimeMillis() - ttl.toMillis();
+    }
+
+    private HnswIndex newIndex() {
+        return new HnswIndex(embeddings.dimension(), 16, 100);
+    }
+
+    // --- Persistence ---
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) return;
+        Path indexFile = dir.resolve(INDEX_FILE);
+        Path answersFile = dir.resolve(ANSWERS_FILE);
+        if (!Files.exists(indexFile) || !Files.exists(answersFile)) return;
+
+        try {
+            HnswIndex loaded = HnswIndex.load(indexFile, embeddings.dimension(), 100);
+            List<Entry> loadedEntries = readEntries(answersFile);
+            // Snapshots are consistent, but a crash between the two files can leave nodes pointing past
+            // the answers. Their numbers are reserved as dead entries so no new answer is ever given one.
+            for (int id = 0; id < loaded.size(); id++) {
+                while (loaded.payload(id) >= loadedEntries.size()) loadedEntries.add(null);
+            }
+            store = new Store(loaded, loadedEntries);
+            seeded = true;
+            log.info("Semantic cache loaded: {} entries", loaded.size());
+        } catch (IOException | RuntimeException e) {
+            // A stale or half-written snapshot only costs us the warm cache
+            log.warn("Could not load semantic cache from {}: {}", dir, e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${alethiq.cache.snapshot-interval:300000}")
+    @PreDestroy
+    public void snapshot() {
+        if (!enabled) return;
+        synchronized (writeLock) {
+            // Checked even without new answers: a full index of expired ones would otherwise never shrink
+            if (compactIfMostlyDead()) dirty = true;
+        }
+        if (!dirty) return;
+        dirty = false;
+        try {
+            Files.createDirectories(dir);
+            synchronized (writeLock) {
+                // One cut of both files with no put in between. Answers first: answers nothing points to
+                // yet are harmless, nodes pointing past the answers are not.
+                writeEntries(store, dir.resolve(ANSWERS_FILE));
+                store.index().save(dir.resolve(INDEX_FILE));
+            }
+        } catch (IOException e) {
+            dirty = true;
+            log.warn("Could not snapshot semantic cache to {}: {}", dir, e.getMessage());
+        }
+    }
+
+    // Rebuilds the index from the stored vectors of the live answers once more than half are dead.
+    // Caller holds writeLock; lookups keep using the old store until the swap.
+    private boolean compactIfMostlyDead() {
+        Store current = store;
+        HnswIndex index = current.index();
+        long oldest = oldestLive();
+
+        int live = 0;
+        for (int id = 0; id < index.size(); id++) {
+            Entry entry = entry(current, index.payload(id));
+            if (entry != null && entry.cachedAt() >= oldest) live++;
+        }
+        if (live * 2 >= index.size()) return false;
+
+        HnswIndex rebuilt = newIndex();
+        List<Entry> kept = new ArrayList<>(live);
+        for (int id = 0; id < index.size(); id++) {
+            Entry entry = entry(current, index.payload(id));
+            if (entry == null || entry.cachedAt() < oldest) continue;
+            kept.add(entry);
+            rebuilt.add(index.vector(id), kept.size() - 1);
+        }
+        store = new Store(rebuilt, kept);
+        log.info("Semantic cache compacted: {} of {} entries live", live, index.size());
+        return true;
+    }
+
+    private static void writeEntries(Store store, Path file) throws IOException {
+        List<Entry> snapshot;
+        synchronized (store.entries()) {
+            snapshot = new ArrayList<>(store.entries());
+        }
+        List<byte[]> modes = new ArrayList<>(snapshot.size());
+        List<byte[]> answers = new ArrayList<>(snapshot.size());
+        long size = 3L * Integer.BYTES;
+        for (Entry entry : snapshot) {
+            // A dead entry (see load) keeps its slot: timestamp -1, no strings
+            byte[] mode = entry == null ? null : entry.mode().getBytes(StandardCharsets.UTF_8);
+            byte[] answer = entry == null ? null : entry.answer().getBytes(StandardCharsets.UTF_8);
+            modes.add(mode);
+            answers.add(answer);
+            size += Long.BYTES + (entry == null ? 0 : 2L * Integer.BYTES + mode.length + answer.length);
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(ANSWERS_MAGIC).putInt(ANSWERS_VERSION).putInt(snapshot.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                Entry entry = snapshot.get(i);
+                if (entry == null) {
+                    out.putLong(-1);
+                    continue;
+                }
+                out.putLong(entry.cachedAt());
+                out.putInt(modes.get(i).length).put(modes.get(i));
+                out.putInt(answers.get(i).length).put(answers.get(i));
+            }
+            out.force();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static List<Entry> readEntries(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != ANSWERS_MAGIC || in.getInt() != ANSWERS_VERSION) {
+                throw new IOException("Not a semantic cache answers file: " + file);
+            }
+            int count = in.getInt();
+            List<Entry> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long cachedAt = in.getLong();
+                if (cachedAt < 0) {
+                    result.add(null);
+                    continue;
+                }
+                String mode = readString(in);
+                result.add(new Entry(mode, readString(in), cachedAt));
+            }
+            return result;
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // --- First-start seeding ---
+
+    // Off the startup path: streams chats and indexes each USER question with the AI answer that follows it
+    @EventListener(ApplicationReadyEvent.class)
+    public void seedFromChats() {
+        if (!enabled || seeded || store.index().size() > 0) return;
+        seeded = true;
+
+        Thread seeder = new Thread(() -> {
+            int added = 0;
+            try (Stream<Chat> stream = mongoTemplate.stream(new Query(), Chat.class)) {
+                Iterator<Chat> chats = stream.iterator();
+                while (chats.hasNext() && store.index().size() < maxEntries) {
+                    added += seed(chats.next().getMessages());
+                }
+            } catch (RuntimeException e) {
+                log.warn("Semantic cache seeding stopped early: {}", e.getMessage());
+            }
+            // Bucketed chats keep their messages in chat_messages
+            try (Stream<MessageBucket> stream = mongoTemplate.stream(new Query(), MessageBucket.class)) {
+                Iterator<MessageBucket> buckets = stream.iterator();
+                while (buckets.hasNext() && store.index().size() < maxEntries) {
+                    added += seed(buckets.next().getMessages());
+                }
+            } catch (RuntimeException e) {
+                log.warn("Semantic cache seeding stopped early: {}", e.getMessage());
+            }
+            log.info("Semantic cache seeded with {} answers from chats", added);
+            snapshot();
+        }, "semantic-cache-seed");
+        seeder.setDaemon(true);
+        seeder.start();
+    }
+
+    private int seed(List<Message> messages) {
+        if (messages == null) return 0;
+        int added = 0;
+        for (int i = 0; i + 1 < messages.size(); i++) {
+            Message question = messages.get(i);
+            Message answer = messages.get(i + 1);
+            if ("USER".equals(question.getRole()) && "AI".equals(answer.getRole())) {
+                put(question.getContent(), InferenceScheduler.FAST, answer.getContent());
+                added++;
+            }
+        }
+        return added;
+    }
+}
@@ -0,0 +1,106 @@
+package com.alethiq.backend.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * One upstream SSE frame, classified by its first JSON key.
+ *
+ * {@code data} is the raw UTF-8 payload of the frame's data field, exactly as the inference service
+ * sent it; it is forwarded to clients as-is and only parsed when someone asks for the token text.
+ */
+public record StreamEvent(Type type, byte[] data) {
+
+    public enum Type {
+        STATUS,  // {"status": ...} and anything we don't recognise
+        TOKEN,   // {"answer_chunk": ...}
+        SOURCES, // {"sources": [...]}
+        DONE,    // [DONE]
+        ERROR,   // {"error": ...}
+        REPLACE  // {"replace_answer": ...}, ours: speculative mode swapping in the deep answer
+    }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static StreamEvent of(Type type, String data) {
+        return new StreamEvent(type, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static StreamEvent token(String text) {
+        return new StreamEvent(Type.TOKEN, json("answer_chunk", MAPPER.getNodeFactory().textNode(text)));
+    }
+
+    public static StreamEvent status(String text) {
+        return new StreamEvent(Type.STATUS, json("status", MAPPER.getNodeFactory().textNode(text)));
+    }
+
+    public static StreamEvent replace(String text) {
+        return new StreamEvent(Type.REPLACE, json("replace_answer", MAPPER.getNodeFactory().textNode(text)));
+    }
+
+    public static StreamEvent done() {
+        return of(Type.DONE, "[DONE]");
+    }
+
+    // Answer text of a TOKEN frame, null for every other type
+    public String token() {
+        return type == Type.TOKEN ? field("answer_chunk") : null;
+    }
+
+    // Full answer carried by a REPLACE frame, null for every other type
+    public String replacement() {
+        return type == Type.REPLACE ? field("replace_answer") : null;
+    }
+
+    /**
+     * Answer text of all TOKEN frames in {@code events}, decoded in one pass: their payloads are joined
+     * into a single JSON array instead of being parsed frame by frame. Null if any payload is malformed.
+     */
+    public static String answerText(List<StreamEvent> events) {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        json.write('[');
+        for (StreamEvent event : events) {
+            if (event.type != Type.TOKEN) continue;
+            if (json.size() > 1) json.write(',');
+            json.writeBytes(event.data);
+        }
+        json.write(']');
+
+        StringBuilder answer = new StringBuilder();
+        try {
+            for (JsonNode frame : MAPPER.readTree(json.toByteArray())) {
+                JsonNode chunk = frame.get("answer_chunk");
+                if (chunk != null) answer.append(chunk.asText());
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return answer.toString();
+    }
+
+    private String field(String key) {
+        try {
+            JsonNode value = MAPPER.readTree(data).get(key);
+            return value != null ? value.asText() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public String text() {
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] json(String key, JsonNode value) {
+        try {
+            return MAPPER.writeValueAsBytes(MAPPER.createObjectNode().set(key, value));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.alethiq.backend.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of the upstream streams in flight, so a restart does not lose
+ * the turns that were being generated.
+ *
+ * Each stream writes a START record, CHECKPOINT records with the answer text added since the previous
+ * one, and an END record when it finishes for any reason. Callers never touch the file: they queue
+ * records (START/END) or hand over the raw token frames, and one flusher thread turns that into a
+ * batch every {@code flush-interval}, with one {@code force()} per batch. Token text is only decoded
+ * at checkpoint time, on the flusher.
+ *
+ * On startup the file is read back; streams without an END are handed to {@link StreamRecovery} and
+ * carried over into a fresh, compacted file until recovery resolves them. A full file is compacted
+ * the same way (only the streams still open are rewritten).
+ */
+@Service
+public class StreamJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamJournal.class);
+
+    private static final String FILE = "streams.journal";
+
+    private static final byte START = 1;
+    private static final byte CHECKPOINT = 2;
+    private static final byte END = 3;
+
+    // Record: [int bodyLength][int crc32(body)][body]; a zero length (untouched mapped space) ends the log
+    private static final int HEADER = 2 * Integer.BYTES;
+
+    // A stream that was still open in the journal when the process went away; conversationId is empty
+    // when the turn started a new conversation
+    public record Unfinished(String streamId, String username, String mode, String query, String conversationId,
+                             String partialAnswer) {}
+
+    /**
+     * Journal side of one stream. {@link #record} is on the token path and only queues the frame.
+     */
+    public final class Handle {
+        final String streamId;
+        final String username;
+        final String mode;
+        final String query;
+        final String conversationId;
+
+        private final List<StreamEvent> pending = new ArrayList<>();
+        // Flusher thread only
+        private final StringBuilder answer = new StringBuilder();
+        private long checkpointedAt;
+        private boolean started;
+
+        private Handle(String streamId, String username, String mode, String query, String conversationId) {
+            this.streamId = streamId;
+            this.username = username;
+            this.mode = mode;
+            this.query = query;
+            this.conversationId = conversationId;
+        }
+
+        public void record(StreamEvent event) {
+            if (event.type() != StreamEvent.Type.TOKEN && event.type() != StreamEvent.Type.REPLACE) return;
+            synchronized (pending) {
+                pending.add(event);
+            }
+        }
+
+        // Stream finished (completed, failed or cancelled): nothing to recover
+        public void end() {
+            if (sealed) return;
+            queue.add(new Queued(this, END));
+        }
+
+        private List<StreamEvent> takePending() {
+            synchronized (pending) {
+                if (pending.isEmpty()) return List.of();
+                List<StreamEvent> taken = new ArrayList<>(pending);
+                pending.clear();
+                return taken;
+            }
+        }
+    }
+
+    private record Queued(Handle handle, byte type) {}
+
+    private final Path dir;
+    private final long size;
+    private final Duration flushInterval;
+    private final long checkpointIntervalNanos;
+
+    private final ConcurrentLinkedQueue<Queued> queue = new ConcurrentLinkedQueue<>();
+    private final Map<String, Handle> open = new ConcurrentHashMap<>();
+    private final List<Unfinished> unfinished = new ArrayList<>();
+
+    private final Counter bytesWritten;
+    private final Timer flushes;
+
+    private MappedByteBuffer mapped;
+    private volatile boolean running;
+    private volatile boolean sealed;
+    private Thread flusher;
+
+    public StreamJournal(MeterRegistry meterRegistry,
+                         @Value("${alethiq.journal.dir:${java.io.tmpdir}/alethiq-journal}") String dir,
+                         @Value("${alethiq.journal.size:16MB}") DataSize size,
+                         @Value("${alethiq.journal.flush-interval:200ms}") Duration flushInterval,
+                         @Value("${alethiq.journal.checkpoint-interval:2s}") Duration checkpointInterval) {
+        this.dir = Path.of(dir);
+        this.size = size.toBytes();
+        this.flushInterval = flushInterval;
+        this.checkpointIntervalNanos = checkpointInterval.toNanos();
+
+        this.bytesWritten = Counter.builder("alethiq.journal.bytes").register(meterRegistry);
+        this.flushes = Timer.builder("alethiq.journal.flush")
+                .description("One batch of journal records written and forced to disk")
+                .register(meterRegistry);
+    }
+
+    // --- Producer side ---
+
+    public Handle begin(String streamId, String username, String mode, String query, String conversationId) {
+        Handle handle = new Handle(streamId, username, mode == null ? "" : mode, query == null ? "" : query,
+                conversationId == null ? "" : conversationId);
+        open.put(streamId, handle);
+        queue.add(new Queued(handle, START));
+        return handle;
+    }
+
+    /**
+     * Marks a recovered stream as dealt with.
+     */
+    public void resolve(String streamId) {
+        queue.add(new Queued(new Handle(streamId, "", "", "", ""), END));
+    }
+
+    // Streams left open by the previous process; read once on startup
+    public synchronized List<Unfinished> unfinished() {
+        return List.copyOf(unfinished);
+    }
+
+    /**
+     * From here on END is no longer recorded: whatever is still running at shutdown stays open in the
+     * journal and is recovered by the next process.
+     */
+    public void seal() {
+        sealed = true;
+    }
+
+    // --- Lifecycle ---
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (dir.toAbsolutePath().startsWith(Path.of(System.getProperty("java.io.tmpdir")).toAbsolutePath())) {
+            log.warn("Stream journal is in {}, under java.io.tmpdir; set ALETHIQ_JOURNAL_DIR to persistent storage "
+                    + "or unfinished turns are lost when the machine restarts", dir);
+        }
+        Files.createDirectories(dir);
+        Path file = dir.resolve(FILE);
+        Map<String, Handle> carried = Files.exists(file) ? read(file) : Map.of();
+        synchronized (this) {
+            for (Handle handle : carried.values()) {
+                handle.started = true;
+                unfinished.add(new Unfinished(handle.streamId, handle.username, handle.mode, handle.query,
+                        handle.conversationId, handle.answer.toString()));
+            }
+        }
+        // Carried over until recovery resolves them
+        open.putAll(carried);
+        compact();
+        if (!carried.isEmpty()) log.info("Stream journal: {} unfinished stream(s) from the previous run", carried.size());
+
+        running = true;
+        flusher = new Thread(this::flushLoop, "stream-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (flusher != null) flusher.join(2000);
+        // Whatever is still open gets its latest text on disk
+        flush(true);
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushInterval.toMillis());
+                flush(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // The journal is a safety net; never let it take the flusher down
+                log.warn("Stream journal flush failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    // --- Writing (flusher thread, or startup/shutdown) ---
+
+    private synchronized void flush(boolean checkpointAll) {
+        if (mapped == null) return;
+        long startedAt = System.nanoTime();
+        List<byte[]> batch = new ArrayList<>();
+
+        Queued queued;
+        while ((queued = queue.poll()) != null) {
+            Handle handle = queued.handle();
+            if (queued.type() == START) {
+                handle.started = true;
+                handle.checkpointedAt = startedAt;
+                batch.add(startRecord(handle));
+            } else {
+                // Text that arrived after the last checkpoint doesn't matter any more
+                open.remove(handle.streamId);
+                batch.add(endRecord(handle.streamId));
+            }
+        }
+        for (Handle handle : open.values()) {
+            if (!handle.started) continue;
+            if (!checkpointAll && startedAt - handle.checkpointedAt < checkpointIntervalNanos) continue;
+            byte[] checkpoint = checkpoint(handle);
+            if (checkpoint != null) batch.add(checkpoint);
+            handle.checkpointedAt = startedAt;
+        }
+        if (batch.isEmpty()) return;
+
+        long bytes = 0;
+        for (byte[] record : batch) bytes += record.length;
+        if (bytes > mapped.remaining()) {
+            // The compacted file already holds the latest state of every open stream, this batch included
+            compact();
+            return;
+        }
+        for (byte[] record : batch) mapped.put(record);
+        mapped.force();
+        bytesWritten.increment(bytes);
+        flushes.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+    }
+
+    // New text since the last checkpoint; a REPLACE frame restarts the answer
+    private byte[] checkpoint(Handle handle) {
+        List<StreamEvent> events = handle.takePending();
+        if (events.isEmpty()) return null;
+        boolean reset = false;
+        int from = handle.answer.length();
+        for (StreamEvent event : events) {
+            String replacement = event.replacement();
+            if (replacement != null) {
+                handle.answer.setLength(0);
+                handle.answer.append(replacement);
+                reset = true;
+                from = 0;
+                continue;
+            }
+            String chunk = event.token();
+            if (chunk != null) handle.answer.append(chunk);
+        }
+        return checkpointRecord(handle.streamId, reset, handle.answer.substring(from));
+    }
+
+    /**
+     * Starts a fresh file holding only the streams still open (START + one full CHECKPOINT each),
+     * swapped in atomically.
+     */
+    private synchronized void compact() {
+        Path file = dir.resolve(FILE);
+        Path tmp = dir.resolve(FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer fresh = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            for (Handle handle : open.values()) {
+                if (!handle.started) continue;
+                byte[] start = startRecord(handle);
+                byte[] text = checkpointRecord(handle.streamId, true, handle.answer.toString());
+                if (start.length + text.length > fresh.remaining()) {
+                    log.warn("Stream journal is too small ({} bytes) for the streams in flight", size);
+                    break;
+                }
+                fresh.put(start).put(text);
+            }
+            fresh.force();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            mapped = fresh; // The mapping stays valid across the rename
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // --- Reading ---
+
+    // Replays the file; returns the streams that never reached END, with their text so far
+    private Map<String, Handle> read(Path file) throws IOException {
+        Map<String, Handle> streams = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            while (in.remaining() >= HEADER) {
+                int length = in.getInt();
+                int checksum = in.getInt();
+                if (length <= 0 || length > in.remaining()) break;
+                byte[] body = new byte[length];
+                in.get(body);
+                crc.reset();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) break; // Torn write at the tail: stop here
+
+                ByteBuffer record = ByteBuffer.wrap(body);
+                byte type = record.get();
+                String streamId = readString(record);
+                if (type == START) {
+                    String username = readString(record);
+                    String mode = readString(record);
+                    String query = readString(record);
+                    // Journals written before the conversation id was recorded end here
+                    String conversationId = record.hasRemaining() ? readString(record) : "";
+                    streams.put(streamId, new Handle(streamId, username, mode, query, conversationId));
+                } else if (type == CHECKPOINT) {
+                    Handle handle = streams.get(streamId);
+                    if (handle == null) continue;
+                    if (record.get() == 1) handle.answer.setLength(0);
+                    handle.answer.append(readString(record));
+                } else if (type == END) {
+                    streams.remove(streamId);
+                }
+            }
+        } catch (RuntimeException e) {
+            // A mangled journal must not stop the application from starting
+            log.warn("Stream journal {} could not be read completely: {}", file, e.getMessage());
+        }
+        return streams;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // --- Encoding ---
+
+    private static byte[] startRecord(Handle handle) {
+        return record(START, handle.streamId, out -> {
+            writeString(out, handle.username);
+            writeString(out, handle.mode);
+            writeString(out, handle.query);
+            writeString(out, handle.conversationId);
+        });
+    }
+
+    private static byte[] checkpointRecord(String streamId, boolean reset, String text) {
+        return record(CHECKPOINT, streamId, out -> {
+            out.writeByte(reset ? 1 : 0);
+            writeString(out, text);
+        });
+    }
+
+    private static byte[] endRecord(String streamId) {
+        return record(END, streamId, out -> {});
+    }
+
+    private interface Fields {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] record(byte type, String streamId, Fields fields) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeByte(type);
+            writeString(out, streamId);
+            fields.write(out);
+            byte[] bytes = body.toByteArray();
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return ByteBuffer.allocate(HEADER + bytes.length)
+                    .putInt(bytes.length)
+                    .putInt((int) crc.getValue())
+                    .put(bytes)
+                    .array();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,90 @@
+package com.alethiq.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Finishes the turns the previous process left open in the {@link StreamJournal}, appending each to
+ * the conversation it was part of (a turn that started a conversation gets a new chat).
+ *
+ * With {@code alethiq.journal.recovery=persist} (default) the partial answer is saved to the user's
+ * history as it stood at the last checkpoint; a turn that had no text yet is re-issued. With
+ * {@code reissue} every unfinished turn is asked again and the full answer is saved (falling back to the
+ * partial one if that fails). Anonymous turns have no history to go to and are only dropped.
+ */
+@Service
+public class StreamRecovery {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamRecovery.class);
+
+    private static final String INTERRUPTED = "\n\n*(This answer was interrupted by a server restart.)*";
+
+    private final StreamJournal journal;
+    private final AiStreamService aiStreamService;
+    private final ChatService chatService;
+    private final EventLog eventLog;
+    private final boolean reissueAll;
+    private final Duration reissueTimeout;
+
+    public StreamRecovery(StreamJournal journal,
+                          AiStreamService aiStreamService,
+                          ChatService chatService,
+                          EventLog eventLog,
+                          @Value("${alethiq.journal.recovery:persist}") String recovery,
+                          @Value("${alethiq.journal.reissue-timeout:2m}") Duration reissueTimeout) {
+        this.journal = journal;
+        this.aiStreamService = aiStreamService;
+        this.chatService = chatService;
+        this.eventLog = eventLog;
+        this.reissueAll = "reissue".equalsIgnoreCase(recovery);
+        this.reissueTimeout = reissueTimeout;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        for (StreamJournal.Unfinished turn : journal.unfinished()) {
+            if (InferenceScheduler.ANONYMOUS.equals(turn.username())) {
+                journal.resolve(turn.streamId());
+                continue;
+            }
+
+            boolean hasPartial = !turn.partialAnswer().isBlank();
+            if (hasPartial && !reissueAll) {
+                save(turn, turn.partialAnswer() + INTERRUPTED, "persisted");
+                continue;
+            }
+
+            // Re-issued through the scheduler like any other call, so a restart storm is still rate-limited
+            aiStreamService.answer(turn.query(), turn.username(), turn.mode())
+                    .timeout(reissueTimeout)
+                    .filter(answer -> !answer.isBlank())
+                    .switchIfEmpty(Mono.error(new RuntimeException("empty answer")))
+                    .subscribe(
+                            answer -> save(turn, answer, "reissued"),
+                            error -> {
+                                log.warn("Re-issuing interrupted turn {} failed: {}", turn.streamId(), error.getMessage());
+                                if (hasPartial) save(turn, turn.partialAnswer() + INTERRUPTED, "persisted");
+                                else journal.resolve(turn.streamId());
+                            });
+        }
+    }
+
+    private void save(StreamJournal.Unfinished turn, String answer, String outcome) {
+        try {
+            // Into the conversation the turn was part of; a new chat only if it started one
+            chatService.saveTurn(turn.username(), turn.conversationId(), turn.query(), answer);
+            eventLog.log(EventLog.Type.PERSIST, "stream", turn.streamId(), "recovery", outcome, "user", turn.username());
+        } catch (RuntimeException e) {
+            // e.g. the account is gone; nothing more we can do for this turn
+            log.warn("Could not save recovered turn {}: {}", turn.streamId(), e.getMessage());
+        }
+        journal.resolve(turn.streamId());
+    }
+}
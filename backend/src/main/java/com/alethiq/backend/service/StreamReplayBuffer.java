@@ -0,0 +1,47 @@
+package com.alethiq.backend.service;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Holds the numbered events of an in-progress answer stream so a client that drops
+ * can reconnect with Last-Event-ID and pick up where it left off.
+ *
+ * The in-memory implementation keeps everything in this JVM. A shared store (Redis streams etc.)
+ * can implement the same contract later so a reconnect can land on any node.
+ */
+public interface StreamReplayBuffer {
+
+    // One numbered SSE event. Sequence numbers start at 1 and are assigned by the buffer.
+    record Event(long seq, StreamEvent event) {}
+
+    void open(String streamId);
+
+    Event append(String streamId, StreamEvent event);
+
+    void complete(String streamId);
+
+    void fail(String streamId, Throwable error);
+
+    // The events right after a resume cursor are no longer retained, so the client cannot continue from it.
+    class EvictedException extends RuntimeException {
+        public EvictedException(String streamId, long afterSeq) {
+            super("Stream " + streamId + " no longer holds the events after " + afterSeq);
+        }
+    }
+
+    /**
+     * Replays every retained event after {@code afterSeq}, then follows the live stream until it completes.
+     * Errors with a RuntimeException if the stream is unknown or has already expired, and with an
+     * {@link EvictedException} if event {@code afterSeq + 1} has already been dropped: a gap in the replay
+     * would be stitched into the client's answer without anyone noticing.
+     */
+    Flux<Event> tail(String streamId, long afterSeq);
+
+    boolean contains(String streamId);
+
+    // Marks the stream as detached/finished; it is dropped once the grace period runs out.
+    void release(String streamId);
+
+    // Cancels a pending release because a client came back.
+    void retain(String streamId);
+}
@@ -0,0 +1,156 @@
+package com.alethiq.backend.service;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns the raw upstream body into {@link StreamEvent}s without decoding it to Strings.
+ *
+ * Bytes are copied from each (pooled) DataBuffer straight into a reusable line buffer and the buffer is
+ * released right away; a frame's data is copied out once, when the frame is complete, and classified by
+ * peeking at its first JSON key. Buffers still in flight when the subscriber cancels are released via
+ * the discard hook.
+ */
+public final class UpstreamSseDecoder {
+
+    private static final byte[] DATA = ascii("data:");
+    private static final byte[] DONE = ascii("[DONE]");
+    private static final byte[] KEY_TOKEN = ascii("answer_chunk");
+    private static final byte[] KEY_SOURCES = ascii("sources");
+    private static final byte[] KEY_ERROR = ascii("error");
+
+    private UpstreamSseDecoder() {
+    }
+
+    public static Flux<StreamEvent> decode(Flux<DataBuffer> body) {
+        return Flux.defer(() -> {
+            Parser parser = new Parser();
+            return body
+                    .concatMapIterable(buffer -> {
+                        try {
+                            return parser.feed(buffer);
+                        } finally {
+                            DataBufferUtils.release(buffer);
+                        }
+                    })
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(parser.finish())));
+        }).doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    // Per-subscription state: the current (partial) line and the data lines of the current frame.
+    static final class Parser {
+        private byte[] line = new byte[256];
+        private int lineLength;
+        private byte[] data = new byte[256];
+        private int dataLength = -1; // -1 = no data line seen in this frame yet
+
+        List<StreamEvent> feed(DataBuffer buffer) {
+            List<StreamEvent> events = null;
+            while (buffer.readableByteCount() > 0) {
+                int start = buffer.readPosition();
+                int newline = buffer.indexOf(b -> b == '\n', start);
+                int end = newline >= 0 ? newline : buffer.writePosition();
+
+                appendLine(buffer, end - start);
+                if (newline < 0) break;
+                buffer.readPosition(newline + 1);
+
+                StreamEvent event = endOfLine();
+                if (event != null) {
+                    if (events == null) events = new ArrayList<>(2);
+                    events.add(event);
+                }
+            }
+            return events != null ? events : List.of();
+        }
+
+        // The upstream closed without a trailing blank line: flush whatever frame is pending
+        List<StreamEvent> finish() {
+            if (lineLength > 0) endOfLine();
+            StreamEvent event = dispatch();
+            return event != null ? List.of(event) : List.of();
+        }
+
+        private void appendLine(DataBuffer buffer, int count) {
+            if (lineLength + count > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + count));
+            }
+            buffer.read(line, lineLength, count);
+            lineLength += count;
+        }
+
+        private StreamEvent endOfLine() {
+            int length = lineLength;
+            if (length > 0 && line[length - 1] == '\r') length--;
+            lineLength = 0;
+
+            if (length == 0) return dispatch();
+            if (startsWith(line, 0, length, DATA)) {
+                int from = DATA.length;
+                if (from < length && line[from] == ' ') from++;
+                appendData(from, length);
+            }
+            // event:, id:, retry: and ':' comments are not used by the inference service
+            return null;
+        }
+
+        private void appendData(int from, int to) {
+            int count = to - from;
+            boolean continuation = dataLength >= 0;
+            int needed = (continuation ? dataLength + 1 : 0) + count;
+            if (needed > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, needed));
+            if (continuation) {
+                data[dataLength++] = '\n';
+            } else {
+                dataLength = 0;
+            }
+            System.arraycopy(line, from, data, dataLength, count);
+            dataLength += count;
+        }
+
+        private StreamEvent dispatch() {
+            if (dataLength < 0) return null;
+            byte[] payload = Arrays.copyOf(data, dataLength);
+            dataLength = -1;
+            return new StreamEvent(classify(payload), payload);
+        }
+    }
+
+    static StreamEvent.Type classify(byte[] payload) {
+        if (Arrays.equals(payload, DONE)) return StreamEvent.Type.DONE;
+
+        // First key of a JSON object: {"key": ...}
+        int i = 0;
+        while (i < payload.length && payload[i] == ' ') i++;
+        if (i >= payload.length || payload[i] != '{') return StreamEvent.Type.STATUS;
+        i++;
+        while (i < payload.length && payload[i] == ' ') i++;
+        if (i >= payload.length || payload[i] != '"') return StreamEvent.Type.STATUS;
+        int keyStart = i + 1;
+        int keyEnd = keyStart;
+        while (keyEnd < payload.length && payload[keyEnd] != '"') keyEnd++;
+
+        if (regionEquals(payload, keyStart, keyEnd, KEY_TOKEN)) return StreamEvent.Type.TOKEN;
+        if (regionEquals(payload, keyStart, keyEnd, KEY_SOURCES)) return StreamEvent.Type.SOURCES;
+        if (regionEquals(payload, keyStart, keyEnd, KEY_ERROR)) return StreamEvent.Type.ERROR;
+        return StreamEvent.Type.STATUS;
+    }
+
+    private static boolean startsWith(byte[] bytes, int from, int to, byte[] prefix) {
+        return to - from >= prefix.length && Arrays.equals(bytes, from, from + prefix.length, prefix, 0, prefix.length);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static boolean regionEquals(byte[] bytes, int from, int to, byte[] other) {
+        return to - from == other.length && Arrays.equals(bytes, from, to, other, 0, other.length);
+    }
+}
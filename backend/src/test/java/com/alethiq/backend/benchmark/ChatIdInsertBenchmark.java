@@ -0,0 +1,107 @@
+package com.alethiq.backend.benchmark;
+
+import com.alethiq.backend.entity.Chat;
+import com.alethiq.backend.entity.Message;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat inserts with the ids Chat.newId() hands out (ObjectId hex) against the random UUID strings it
+ * replaced, through MongoTemplate so the id conversion is the one the app does. Each fork starts from a
+ * collection already holding {@code preloaded} chats of the same kind, so random ids have an index to
+ * scatter over. After each iteration the _id index size is printed, per document, next to the score.
+ *
+ * Needs a mongod: BENCHMARK_MONGO_URI (default mongodb://localhost:27017). Uses and drops the
+ * alethiq_benchmark database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ChatIdInsertBenchmark {
+
+	private static final String DATABASE = "alethiq_benchmark";
+
+	@Param({"objectId", "uuid"})
+	public String idKind;
+
+	@Param({"200000"})
+	public int preloaded;
+
+	private MongoClient client;
+	private MongoTemplate template;
+
+	@Setup
+	public void setUp() {
+		String uri = System.getenv().getOrDefault("BENCHMARK_MONGO_URI", "mongodb://localhost:27017");
+		client = MongoClients.create(uri);
+		template = new MongoTemplate(client, DATABASE);
+		template.dropCollection(Chat.class);
+
+		List<Chat> batch = new ArrayList<>(1000);
+		for (int i = 0; i < preloaded; i++) {
+			batch.add(chat());
+			if (batch.size() == 1000) {
+				template.insertAll(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) template.insertAll(batch);
+	}
+
+	@TearDown(Level.Iteration)
+	public void reportIndexSize() {
+		// Sizes come from WiredTiger's files, so checkpoint first to count what this iteration inserted
+		client.getDatabase("admin").runCommand(new Document("fsync", 1));
+		Document stats = template.getDb().runCommand(new Document("collStats", template.getCollectionName(Chat.class)));
+		long count = ((Number) stats.get("count")).longValue();
+		long idIndex = ((Number) stats.get("indexSizes", Document.class).get("_id_")).longValue();
+		System.out.printf("%n_id index (%s): %d bytes for %d chats, %.1f bytes/chat%n", idKind, idIndex, count, (double) idIndex / count);
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.getDatabase(DATABASE).drop();
+		client.close();
+	}
+
+	@Benchmark
+	public Chat insert() {
+		return template.insert(chat());
+	}
+
+	private Chat chat() {
+		Chat chat = new Chat();
+		chat.setId("uuid".equals(idKind) ? UUID.randomUUID().toString() : Chat.newId());
+		chat.setUserId("alice");
+		chat.setTitle("What is the capital of France...");
+		chat.setCreatedAt(LocalDateTime.now());
+		chat.setLastActivityAt(chat.getCreatedAt());
+		chat.getMessages().add(new Message("USER", "What is the capital of France?", chat.getCreatedAt()));
+		chat.setMessageCount(1);
+		return chat;
+	}
+}
@@ -0,0 +1,138 @@
+package com.alethiq.backend.benchmark;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import com.alethiq.backend.service.EventLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one stream event on a request path: each operation does {@code requestWork} of CPU work (what
+ * handling the request costs besides logging), then logs one event through the ring buffer, a synchronous
+ * SLF4J call, or the println it replaced. Every variant writes to a file in a temp directory, not the console.
+ *
+ * The request work keeps the event rate at something the appender thread sustains, so the score is the
+ * logging path and not the drop path. The ring buffer reports logged/dropped as aux counters: a run where
+ * dropped is not 0 was measuring an overloaded appender and says nothing about the normal case.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class EventLogBenchmark {
+
+	// Blackhole.consumeCPU tokens per request; raise it if ringBuffer:dropped is not 0 on the machine at hand
+	@Param({"20000"})
+	public long requestWork;
+
+	private Path dir;
+	private EventLog eventLog;
+	private org.slf4j.Logger syncLog;
+	private PrintStream out;
+
+	@Setup
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("alethiq-eventlog-bench");
+		toFile("alethiq.events", dir.resolve("events.log"));
+		toFile("benchmark.sync", dir.resolve("sync.log"));
+
+		eventLog = new EventLog(new SimpleMeterRegistry(), 8192, "");
+		eventLog.start();
+		syncLog = LoggerFactory.getLogger("benchmark.sync");
+		// Same as System.out: autoflush on every println
+		out = new PrintStream(new FileOutputStream(dir.resolve("println.log").toFile()), true);
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		eventLog.stop();
+		out.close();
+	}
+
+	// Per-thread event counts, summed over threads and reported next to the score
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Outcome {
+		public long logged;
+		public long dropped;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			logged = 0;
+			dropped = 0;
+		}
+	}
+
+	@Benchmark
+	public void ringBuffer(Outcome outcome) {
+		Blackhole.consumeCPU(requestWork);
+		if (eventLog.log(EventLog.Type.STREAM_END, "stream", "65f1c2", "tokens", 412, "user", "alice")) outcome.logged++;
+		else outcome.dropped++;
+	}
+
+	@Benchmark
+	public void slf4jSync() {
+		Blackhole.consumeCPU(requestWork);
+		syncLog.info("event=stream_end stream={} tokens={} user={}", "65f1c2", 412, "alice");
+	}
+
+	@Benchmark
+	public void println() {
+		Blackhole.consumeCPU(requestWork);
+		out.println("event=stream_end stream=" + "65f1c2" + " tokens=" + 412 + " user=" + "alice");
+	}
+
+	// Baseline: the request work alone, to subtract from the three above
+	@Benchmark
+	public void requestOnly() {
+		Blackhole.consumeCPU(requestWork);
+	}
+
+	private static void toFile(String name, Path file) {
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+		encoder.setContext(context);
+		encoder.setPattern("%d %msg%n");
+		encoder.start();
+
+		FileAppender<ILoggingEvent> appender = new FileAppender<>();
+		appender.setContext(context);
+		appender.setFile(file.toString());
+		appender.setEncoder(encoder);
+		appender.start();
+
+		Logger logger = context.getLogger(name);
+		logger.detachAndStopAllAppenders();
+		logger.setAdditive(false);
+		logger.addAppender(appender);
+	}
+}
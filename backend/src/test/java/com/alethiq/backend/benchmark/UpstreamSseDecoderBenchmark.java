@@ -0,0 +1,150 @@
+package com.alethiq.backend.benchmark;
+
+import com.alethiq.backend.service.StreamEvent;
+import com.alethiq.backend.service.UpstreamSseDecoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpInputMessage;
+import org.springframework.http.codec.ServerSentEventHttpMessageReader;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One upstream answer (status, {@code tokens} answer_chunk frames, sources, [DONE]) read in network-sized
+ * pooled Netty chunks, through UpstreamSseDecoder and through what {@code bodyToFlux(String.class)} did before: Spring's
+ * SSE reader producing one String per frame. The benchmark profile runs with {@code -prof gc}, so
+ * gc.alloc.rate.norm gives the bytes allocated per answer for each path.
+ *
+ * passThrough is the relay to the browser (no token text needed); assembleAnswer is what batch queries
+ * and recovery do with it (the old path parsed every frame with Jackson).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpstreamSseDecoderBenchmark {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final ResolvableType STRING = ResolvableType.forClass(String.class);
+
+	@Param({"500"})
+	public int tokens;
+
+	@Param({"8192"})
+	public int chunkSize;
+
+	// What Reactor Netty hands WebClient: pooled direct buffers, released by whoever consumes them
+	private final NettyDataBufferFactory factory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+	private final ServerSentEventHttpMessageReader sseReader = new ServerSentEventHttpMessageReader(new Jackson2JsonDecoder());
+	private byte[][] chunks;
+
+	@Setup
+	public void setUp() {
+		StringBuilder body = new StringBuilder("data: {\"status\": \"Searching the web...\"}\n\n");
+		for (int i = 0; i < tokens; i++) {
+			body.append("data: {\"answer_chunk\": \"token number ").append(i).append(" \"}\n\n");
+		}
+		body.append("data: {\"sources\": [{\"title\": \"Example\", \"url\": \"https://example.com\"}]}\n\n");
+		body.append("data: [DONE]\n\n");
+
+		byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+		chunks = new byte[(bytes.length + chunkSize - 1) / chunkSize][];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = Arrays.copyOfRange(bytes, i * chunkSize, Math.min(bytes.length, (i + 1) * chunkSize));
+		}
+	}
+
+	@Benchmark
+	public void passThroughDecoder(Blackhole bh) {
+		UpstreamSseDecoder.decode(body()).doOnNext(bh::consume).blockLast();
+	}
+
+	@Benchmark
+	public void passThroughStrings(Blackhole bh) {
+		strings().doOnNext(bh::consume).blockLast();
+	}
+
+	@Benchmark
+	public String assembleAnswerDecoder() {
+		return UpstreamSseDecoder.decode(body())
+				.reduce(new StringBuilder(), (answer, event) -> {
+					String chunk = event.token();
+					if (chunk != null) answer.append(chunk);
+					return answer;
+				})
+				.map(StringBuilder::toString)
+				.block();
+	}
+
+	@Benchmark
+	public String assembleAnswerStrings() {
+		return strings()
+				.reduce(new StringBuilder(), (answer, data) -> {
+					String chunk = answerChunk(data);
+					if (chunk != null) answer.append(chunk);
+					return answer;
+				})
+				.map(StringBuilder::toString)
+				.block();
+	}
+
+	private Flux<DataBuffer> body() {
+		return Flux.fromArray(chunks)
+				.map(chunk -> factory.wrap(PooledByteBufAllocator.DEFAULT.directBuffer(chunk.length).writeBytes(chunk)));
+	}
+
+	// Same reader WebClient picks for bodyToFlux(String.class) on a text/event-stream response
+	private Flux<String> strings() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.TEXT_EVENT_STREAM);
+		ReactiveHttpInputMessage message = new ReactiveHttpInputMessage() {
+			@Override
+			public Flux<DataBuffer> getBody() {
+				return body();
+			}
+
+			@Override
+			public HttpHeaders getHeaders() {
+				return headers;
+			}
+		};
+		return sseReader.read(STRING, message, Map.of()).cast(String.class);
+	}
+
+	// The per-frame parse AiStreamService.answer() used to do
+	private static String answerChunk(String data) {
+		if (data == null || !data.startsWith("{")) return null;
+		try {
+			JsonNode chunk = MAPPER.readTree(data).get("answer_chunk");
+			return chunk != null ? chunk.asText() : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.alethiq.backend.entity;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatIdMappingTests {
+
+	// Wired the way Spring Boot wires them: java.time and the other store types are simple values
+	private final MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+	private final MongoMappingContext context = context(conversions);
+	private final MappingMongoConverter converter = converter(context, conversions);
+
+	@Test
+	void newIdsAreStoredAsObjectIdsAndReadBackAsTheSameString() {
+		String id = Chat.newId();
+		assertTrue(ObjectId.isValid(id));
+
+		Document stored = write(chat(id));
+		assertEquals(new ObjectId(id), stored.get("_id"));
+		assertEquals(id, converter.read(Chat.class, stored).getId());
+		// Lookups by id convert the same way, so findById matches the stored ObjectId
+		assertEquals(new ObjectId(id), queryFor(id).get("_id"));
+	}
+
+	@Test
+	void oldUuidIdsStayPlainStringsBothWays() {
+		String id = UUID.randomUUID().toString();
+
+		Document stored = write(chat(id));
+		assertInstanceOf(String.class, stored.get("_id"));
+		assertEquals(id, stored.get("_id"));
+		assertEquals(id, converter.read(Chat.class, stored).getId());
+		assertEquals(id, queryFor(id).get("_id"));
+	}
+
+	private Document write(Chat chat) {
+		Document document = new Document();
+		converter.write(chat, document);
+		return document;
+	}
+
+	private Document queryFor(String id) {
+		Query query = Query.query(Criteria.where("id").is(id));
+		return new QueryMapper(converter).getMappedObject(query.getQueryObject(), context.getPersistentEntity(Chat.class));
+	}
+
+	private static Chat chat(String id) {
+		Chat chat = new Chat();
+		chat.setId(id);
+		chat.setUserId("alice");
+		chat.setTitle("Hello...");
+		return chat;
+	}
+
+	private static MongoMappingContext context(MongoCustomConversions conversions) {
+		MongoMappingContext context = new MongoMappingContext();
+		context.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+		context.afterPropertiesSet();
+		return context;
+	}
+
+	private static MappingMongoConverter converter(MongoMappingContext context, MongoCustomConversions conversions) {
+		MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+		converter.setCustomConversions(conversions);
+		converter.afterPropertiesSet();
+		return converter;
+	}
+}
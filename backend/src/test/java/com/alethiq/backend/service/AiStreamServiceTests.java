@@ -0,0 +1,85 @@
+package com.alethiq.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AiStreamServiceTests {
+
+	private DisposableServer stub;
+	private SimpleMeterRegistry registry;
+	private EventLog eventLog;
+	private SemanticCacheService cache;
+
+	@BeforeEach
+	void setUp() {
+		// Fast answers straight away, deep answers a little later and differently
+		stub = HttpServer.create()
+				.port(0)
+				.route(routes -> routes.post("/query-stream", (req, res) -> res
+						.header("Content-Type", "text/event-stream")
+						.sendString(req.receive().aggregate().asString().flatMapMany(body -> body.contains("\"deep\"")
+								? Flux.just("data: {\"answer_chunk\": \"thorough\"}\n\n", "data: [DONE]\n\n").delaySequence(Duration.ofMillis(200))
+								: Flux.just("data: {\"answer_chunk\": \"quick\"}\n\n", "data: [DONE]\n\n")))))
+				.bindNow();
+
+		registry = new SimpleMeterRegistry();
+		eventLog = new EventLog(registry, 1024, "");
+		cache = new SemanticCacheService(new HashingEmbeddingFunction(64), null, registry,
+				false, 0.92, 64, 1000, Duration.ofHours(24), System.getProperty("java.io.tmpdir"));
+	}
+
+	@AfterEach
+	void tearDown() {
+		stub.disposeNow();
+	}
+
+	@Test
+	void speculativeStreamsFastThenReplacesWithDeep() {
+		AiStreamService ai = service(8);
+
+		List<StreamEvent> events = ai.streamAnswer("question", "alice", InferenceScheduler.SPECULATIVE)
+				.collectList()
+				.block(Duration.ofSeconds(5));
+
+		assertEquals(3, events.size());
+		assertEquals("quick", events.get(0).token());
+		assertEquals(StreamEvent.Type.REPLACE, events.get(1).type());
+		assertEquals("thorough", events.get(1).replacement());
+		assertEquals(StreamEvent.Type.DONE, events.get(2).type());
+		assertEquals("thorough", ai.answer("question", "alice", InferenceScheduler.SPECULATIVE).block(Duration.ofSeconds(5)));
+	}
+
+	@Test
+	void speculativeSkipsDeepWhenSaturated() {
+		// One slot: the fast call takes it, so there is no room for the deep one
+		AiStreamService ai = service(1);
+
+		List<StreamEvent> events = ai.streamAnswer("question", "alice", InferenceScheduler.SPECULATIVE)
+				.collectList()
+				.block(Duration.ofSeconds(5));
+
+		assertEquals(2, events.size());
+		assertEquals("quick", events.get(0).token());
+		assertEquals(StreamEvent.Type.DONE, events.get(1).type());
+		assertTrue(events.stream().noneMatch(e -> e.type() == StreamEvent.Type.REPLACE));
+	}
+
+	private AiStreamService service(int limit) {
+		InferenceScheduler scheduler = new InferenceScheduler(registry, limit, limit, limit,
+				Duration.ofSeconds(3), Duration.ofSeconds(10), 3, 1, Duration.ofSeconds(15), 500, 4);
+		return new AiStreamService(WebClient.builder(), scheduler, eventLog, cache,
+				"http://localhost:" + stub.port(), Duration.ofMillis(50));
+	}
+}
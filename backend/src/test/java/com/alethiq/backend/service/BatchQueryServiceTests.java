@@ -0,0 +1,105 @@
+package com.alethiq.backend.service;
+
+import com.alethiq.backend.dto.ChatDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BatchQueryServiceTests {
+
+	private DisposableServer stub;
+	private BatchQueryService service;
+
+	@BeforeEach
+	void setUp() {
+		// Answers with the query text; "slow" takes a while, "fail" is a 500 and "hang" never answers
+		stub = HttpServer.create()
+				.port(0)
+				.route(routes -> routes.post("/query-stream", (req, res) -> req.receive().aggregate().asString().flatMap(body -> {
+					if (body.contains("fail")) return res.status(HttpResponseStatus.INTERNAL_SERVER_ERROR).send().then();
+					Flux<String> frames = body.contains("hang")
+							? Flux.never()
+							: Flux.just("data: {\"answer_chunk\": \"" + query(body) + "\"}\n\n", "data: [DONE]\n\n");
+					if (body.contains("slow")) frames = frames.delaySequence(Duration.ofMillis(300));
+					return res.header("Content-Type", "text/event-stream").sendString(frames).then();
+				})))
+				.bindNow();
+
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		EventLog eventLog = new EventLog(registry, 1024, "");
+		InferenceScheduler scheduler = new InferenceScheduler(registry, 8, 8, 8,
+				Duration.ofSeconds(3), Duration.ofSeconds(10), 3, 1, Duration.ofSeconds(15), 500, 4);
+		SemanticCacheService cache = new SemanticCacheService(new HashingEmbeddingFunction(64), null, registry,
+				false, 0.92, 64, 1000, Duration.ofHours(24), System.getProperty("java.io.tmpdir"));
+		AiStreamService ai = new AiStreamService(WebClient.builder(), scheduler, eventLog, cache,
+				"http://localhost:" + stub.port(), Duration.ofMillis(50));
+		service = new BatchQueryService(ai, scheduler, eventLog, 4, Duration.ofSeconds(5));
+	}
+
+	@AfterEach
+	void tearDown() {
+		stub.disposeNow();
+	}
+
+	@Test
+	void answersComeOutInCompletionOrderTaggedWithTheirIndex() {
+		List<ChatDTO.BatchItemResult> results = run(List.of("slow one", "quick two", "quick three"), null);
+
+		// The slow first query finishes last; index still points at its place in the request
+		assertEquals(3, results.size());
+		assertEquals(0, results.get(2).index());
+		assertEquals("slow one", results.get(2).answer());
+		for (ChatDTO.BatchItemResult result : results) {
+			assertEquals("ok", result.status());
+			assertEquals(List.of("slow one", "quick two", "quick three").get(result.index()), result.answer());
+		}
+	}
+
+	@Test
+	void failedItemBecomesAnErrorLineAndTheRestCarryOn() {
+		List<ChatDTO.BatchItemResult> results = sortedByIndex(run(List.of("first", "fail please", "third"), null));
+
+		assertEquals(List.of("ok", "error", "ok"), results.stream().map(ChatDTO.BatchItemResult::status).toList());
+		assertNull(results.get(1).answer());
+		assertEquals("third", results.get(2).answer());
+	}
+
+	@Test
+	void itemTimeoutAppliesPerItem() {
+		List<ChatDTO.BatchItemResult> results = sortedByIndex(run(List.of("hang forever", "second"), 500L));
+
+		assertEquals("timeout", results.get(0).status());
+		assertEquals("Timed out after 500 ms", results.get(0).error());
+		assertEquals("ok", results.get(1).status());
+		assertEquals("second", results.get(1).answer());
+	}
+
+	private List<ChatDTO.BatchItemResult> run(List<String> queries, Long itemTimeoutMs) {
+		ChatDTO.BatchRequest request = new ChatDTO.BatchRequest(queries, InferenceScheduler.FAST, 3, itemTimeoutMs);
+		return service.run(request, "alice").collectList().block(Duration.ofSeconds(10));
+	}
+
+	private static List<ChatDTO.BatchItemResult> sortedByIndex(List<ChatDTO.BatchItemResult> results) {
+		return results.stream().sorted(Comparator.comparingInt(ChatDTO.BatchItemResult::index)).toList();
+	}
+
+	// The stub's request body is {"query": "...", "mode": "..."}
+	private static String query(String body) {
+		int start = body.indexOf("\"query\":\"") + 9;
+		return body.substring(start, body.indexOf('"', start));
+	}
+}
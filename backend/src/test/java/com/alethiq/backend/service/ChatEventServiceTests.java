@@ -0,0 +1,156 @@
+package com.alethiq.backend.service;
+
+import com.alethiq.backend.dto.ChatDTO;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ChatEventServiceTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	@Test
+	void insertsAreNewChatsUnlessPromotedFromTheArchive() {
+		Date now = new Date();
+		ChatDTO.ChatDelta created = ChatEventService.deltaFor(change("insert", chat("c1", now, now), null));
+		assertEquals(ChatDTO.ChatDelta.CREATED, created.type());
+		assertEquals("c1", created.chatId());
+		assertEquals("Hello...", created.title());
+		assertEquals(2, created.messageCount());
+
+		// Created 40 days ago, touched now: back from the archive, already in the user's list
+		Date longAgo = Date.from(Instant.now().minus(Duration.ofDays(40)));
+		assertNull(ChatEventService.deltaFor(change("insert", chat("c1", longAgo, now), null)));
+	}
+
+	@Test
+	void updatesMapByTheFieldsTheyTouch() {
+		Date now = new Date();
+		Document chat = chat("c1", now, now);
+
+		assertEquals(ChatDTO.ChatDelta.TITLE_CHANGED, ChatEventService.deltaFor(change("update", chat, fields("title"))).type());
+		// Bucketed append: counter on the chat; embedded append: $push onto the array
+		assertEquals(ChatDTO.ChatDelta.MESSAGE_APPENDED, ChatEventService.deltaFor(change("update", chat, fields("messageCount", "lastActivityAt"))).type());
+		assertEquals(ChatDTO.ChatDelta.MESSAGE_APPENDED, ChatEventService.deltaFor(change("update", chat, fields("messages.2", "messages.3"))).type());
+		assertEquals(ChatDTO.ChatDelta.MESSAGE_APPENDED, ChatEventService.deltaFor(change("replace", chat, null)).type());
+
+		// Moving messages into buckets is not a new message; touches and claims are not shown at all
+		assertNull(ChatEventService.deltaFor(change("update", chat, fields("bucketed", "latestBucket", "messageCount"))));
+		assertNull(ChatEventService.deltaFor(change("update", chat, fields("lastActivityAt"))));
+		assertNull(ChatEventService.deltaFor(change("update", chat, fields("moveClaim", "moveClaimedAt"))));
+		// Archived before the lookup ran
+		assertNull(ChatEventService.deltaFor(change("update", null, fields("messageCount"))));
+	}
+
+	@Test
+	void changeReachesOnlyThatUsersSubscribersWithinTarget() throws InterruptedException {
+		ChatEventService service = new ChatEventService(null, registry, Duration.ofSeconds(15), 2000);
+		List<ChatDTO.ChatDelta> alice = new CopyOnWriteArrayList<>();
+		List<ChatDTO.ChatDelta> bob = new CopyOnWriteArrayList<>();
+		Disposable a = subscribe(service, "alice", alice);
+		Disposable b = subscribe(service, "bob", bob);
+
+		Date now = new Date();
+		Document chat = chat("c1", now, now);
+		ChangeStreamDocument<Document> change = new ChangeStreamDocument<>("update", null, null, null, chat, null, null, null,
+				new UpdateDescription(null, fields("messageCount")), null, null, new BsonDateTime(System.currentTimeMillis()), null, null);
+		service.handle(change);
+		awaitSize(alice, 1);
+
+		assertEquals(ChatDTO.ChatDelta.MESSAGE_APPENDED, alice.get(0).type());
+		assertEquals(List.of(), bob);
+		Timer delivery = registry.get("alethiq.chat.events.delivery").timer();
+		assertEquals(1, delivery.count());
+		assertEquals(1.0, underTarget(delivery));
+		a.dispose();
+		b.dispose();
+	}
+
+	@Test
+	void pollingFallbackSendsCreatedAndAppendedForSubscribedUsers() throws InterruptedException {
+		Date old = Date.from(Instant.now().minus(Duration.ofDays(3)));
+		List<List<String>> asked = new ArrayList<>();
+		ChatEventService service = new ChatEventService(null, registry, Duration.ofSeconds(15), 2000) {
+			@Override
+			Iterable<Document> changedSince(List<String> userIds, Instant since) {
+				asked.add(userIds);
+				// One chat created since the last poll, one older chat with a new message
+				Date touched = Date.from(since.plusMillis(1));
+				return List.of(chat("new", touched, touched), chat("old", old, touched));
+			}
+		};
+		// Nobody listening: no query at all
+		service.poll();
+		assertEquals(List.of(), asked);
+
+		List<ChatDTO.ChatDelta> alice = new CopyOnWriteArrayList<>();
+		Disposable subscription = subscribe(service, "alice", alice);
+		Thread.sleep(10);
+		service.poll();
+		awaitSize(alice, 2);
+
+		assertEquals(List.of(List.of("alice")), asked);
+		assertEquals(ChatDTO.ChatDelta.CREATED, alice.get(0).type());
+		assertEquals("new", alice.get(0).chatId());
+		assertEquals(ChatDTO.ChatDelta.MESSAGE_APPENDED, alice.get(1).type());
+		assertEquals("old", alice.get(1).chatId());
+		subscription.dispose();
+	}
+
+	private static Disposable subscribe(ChatEventService service, String userId, List<ChatDTO.ChatDelta> into) {
+		return service.subscribe(userId)
+				.filter(event -> event.data() != null)
+				.subscribe(event -> into.add(event.data()));
+	}
+
+	private static Document chat(String id, Date createdAt, Date lastActivityAt) {
+		return new Document("_id", id)
+				.append("userId", "alice")
+				.append("title", "Hello...")
+				.append("createdAt", createdAt)
+				.append("lastActivityAt", lastActivityAt)
+				.append("messageCount", 2);
+	}
+
+	private static BsonDocument fields(String... names) {
+		BsonDocument updated = new BsonDocument();
+		for (String name : names) updated.append(name, new BsonInt32(1));
+		return updated;
+	}
+
+	private static ChangeStreamDocument<Document> change(String operation, Document chat, BsonDocument updatedFields) {
+		UpdateDescription update = updatedFields == null ? null : new UpdateDescription(null, updatedFields);
+		return new ChangeStreamDocument<>(operation, null, null, null, chat, null, null, null, update, null, null, null, null, null);
+	}
+
+	private static double underTarget(Timer timer) {
+		for (CountAtBucket bucket : timer.takeSnapshot().histogramCounts()) {
+			if (bucket.bucket(TimeUnit.MILLISECONDS) == 100.0) return bucket.count();
+		}
+		return -1;
+	}
+
+	private static void awaitSize(List<?> list, int size) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 2000;
+		while (list.size() < size && System.currentTimeMillis() < deadline) Thread.sleep(1);
+	}
+}
@@ -0,0 +1,101 @@
+package com.alethiq.backend.service;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventLogTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final Logger events = (Logger) LoggerFactory.getLogger("alethiq.events");
+	private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+	@BeforeEach
+	void setUp() {
+		appender.start();
+		events.addAppender(appender);
+	}
+
+	@AfterEach
+	void tearDown() {
+		events.detachAppender(appender);
+	}
+
+	@Test
+	void ringWrapsAroundInOrder() throws Exception {
+		// Rounded up to 4 slots; 20 events go round the ring five times
+		EventLog eventLog = new EventLog(registry, 4, "");
+		eventLog.start();
+		for (int i = 0; i < 20; i++) {
+			eventLog.log(EventLog.Type.REQUEST, "n", i);
+			awaitLines(i + 1);
+		}
+		eventLog.stop();
+
+		List<String> lines = lines();
+		assertEquals(20, lines.size());
+		for (int i = 0; i < 20; i++) {
+			assertTrue(lines.get(i).startsWith("event=request ts="), lines.get(i));
+			assertTrue(lines.get(i).endsWith(" n=" + i), lines.get(i));
+		}
+		assertEquals(0, eventLog.droppedCount(EventLog.Type.REQUEST));
+	}
+
+	@Test
+	void fullRingDropsAndCountsInsteadOfBlocking() throws Exception {
+		// Appender not started yet, so nothing frees a slot
+		EventLog eventLog = new EventLog(registry, 4, "");
+		for (int i = 0; i < 4; i++) assertTrue(eventLog.log(EventLog.Type.PERSIST, "n", i));
+		for (int i = 4; i < 10; i++) assertFalse(eventLog.log(EventLog.Type.PERSIST, "n", i));
+
+		assertEquals(6, eventLog.droppedCount(EventLog.Type.PERSIST));
+		assertEquals(6.0, registry.get("alethiq.eventlog.dropped").tag("type", "PERSIST").functionCounter().count());
+		assertEquals(0, eventLog.droppedCount(EventLog.Type.REQUEST));
+
+		// The four that made it in are still written once the appender runs
+		eventLog.start();
+		eventLog.stop();
+		List<String> lines = lines();
+		assertEquals(4, lines.size());
+		assertTrue(lines.get(3).endsWith(" n=3"));
+	}
+
+	@Test
+	void samplingAppliesPerType() throws Exception {
+		EventLog eventLog = new EventLog(registry, 1024, "stream_start=0, request=1");
+		eventLog.start();
+		for (int i = 0; i < 50; i++) {
+			eventLog.log(EventLog.Type.STREAM_START, "n", i);
+			eventLog.log(EventLog.Type.REQUEST, "n", i);
+		}
+		eventLog.stop();
+
+		assertEquals(50.0, registry.get("alethiq.eventlog.sampled.out").tag("type", "STREAM_START").functionCounter().count());
+		assertEquals(0.0, registry.get("alethiq.eventlog.sampled.out").tag("type", "REQUEST").functionCounter().count());
+		List<String> lines = lines();
+		assertEquals(50, lines.size());
+		assertTrue(lines.stream().allMatch(line -> line.startsWith("event=request ")));
+	}
+
+	private List<String> lines() {
+		synchronized (appender) {
+			return appender.list.stream().map(ILoggingEvent::getFormattedMessage).toList();
+		}
+	}
+
+	private void awaitLines(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 2000;
+		while (lines().size() < count && System.currentTimeMillis() < deadline) Thread.sleep(1);
+	}
+}
@@ -0,0 +1,156 @@
+package com.alethiq.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InferenceSchedulerTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	@Test
+	void modesShareTheBackendThreeToOne() {
+		InferenceScheduler scheduler = scheduler(1, 4, 500);
+		Sinks.Empty<Void> blocker = hold(scheduler, InferenceScheduler.FAST, InferenceScheduler.ANONYMOUS);
+
+		List<String> order = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			record(scheduler, InferenceScheduler.FAST, InferenceScheduler.ANONYMOUS, order, "fast");
+			record(scheduler, InferenceScheduler.DEEP, InferenceScheduler.ANONYMOUS, order, "deep");
+		}
+		blocker.tryEmitEmpty();
+
+		assertEquals(16, order.size());
+		List<String> firstEight = order.subList(0, 8);
+		assertEquals(6, firstEight.stream().filter("fast"::equals).count());
+		assertEquals(2, firstEight.stream().filter("deep"::equals).count());
+	}
+
+	@Test
+	void usersInOneModeAreServedRoundRobin() {
+		InferenceScheduler scheduler = scheduler(1, 4, 500);
+		Sinks.Empty<Void> blocker = hold(scheduler, InferenceScheduler.FAST, "carol");
+
+		List<String> order = new ArrayList<>();
+		for (int i = 0; i < 3; i++) record(scheduler, InferenceScheduler.FAST, "alice", order, "alice");
+		for (int i = 0; i < 3; i++) record(scheduler, InferenceScheduler.FAST, "bob", order, "bob");
+		blocker.tryEmitEmpty();
+
+		assertEquals(List.of("alice", "bob", "alice", "bob", "alice", "bob"), order);
+	}
+
+	@Test
+	void userAtQuotaWaitsWithoutBlockingOthers() {
+		InferenceScheduler scheduler = scheduler(8, 2, 500);
+		Sinks.Empty<Void> first = hold(scheduler, InferenceScheduler.FAST, "alice");
+		hold(scheduler, InferenceScheduler.FAST, "alice");
+		hold(scheduler, InferenceScheduler.FAST, "alice");
+		hold(scheduler, InferenceScheduler.FAST, "bob");
+
+		assertEquals(3, scheduler.inFlight());
+		assertEquals(1, scheduler.queued());
+
+		first.tryEmitEmpty();
+		assertEquals(3, scheduler.inFlight());
+		assertEquals(0, scheduler.queued());
+	}
+
+	@Test
+	void cancelledTicketsLeaveTheQueue() {
+		InferenceScheduler scheduler = scheduler(1, 4, 2);
+		hold(scheduler, InferenceScheduler.FAST, "carol");
+
+		Disposable a = scheduler.schedule(InferenceScheduler.FAST, "alice", Flux::never).subscribe();
+		Disposable b = scheduler.schedule(InferenceScheduler.FAST, "bob", Flux::never).subscribe();
+		assertEquals(2.0, queuedGauge(InferenceScheduler.FAST));
+		a.dispose();
+		b.dispose();
+
+		assertEquals(0, scheduler.queued());
+		assertEquals(0.0, queuedGauge(InferenceScheduler.FAST));
+
+		// max-queued counts live tickets only
+		List<Throwable> errors = new ArrayList<>();
+		scheduler.schedule(InferenceScheduler.FAST, "alice", Flux::never).subscribe(item -> {}, errors::add);
+		scheduler.schedule(InferenceScheduler.FAST, "bob", Flux::never).subscribe(item -> {}, errors::add);
+		assertEquals(List.of(), errors);
+		assertEquals(2, scheduler.queued());
+	}
+
+	@Test
+	void limitGrowsAdditivelyAndBacksOffMultiplicatively() {
+		long target = Duration.ofSeconds(1).toNanos();
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 2, 6, 0.5);
+
+		// +1/limit per fast call: about one step per window of calls
+		for (int i = 0; i < 4; i++) limit.onSample(target / 2, target, true);
+		assertEquals(4, limit.get());
+		limit.onSample(target / 2, target, true);
+		assertEquals(5, limit.get());
+
+		// A slow call counts as a failure
+		limit.onSample(target * 2, target, true);
+		assertEquals(2, limit.get());
+		limit.onSample(target / 2, target, false);
+		assertEquals(2, limit.get()); // Never below min
+
+		AdaptiveConcurrencyLimit atMax = new AdaptiveConcurrencyLimit(6, 2, 6, 0.5);
+		atMax.onSample(target / 2, target, true);
+		assertEquals(6, atMax.get());
+	}
+
+	@Test
+	void latencyIsTakenAtTheFirstTokenAgainstTheModesTarget() {
+		InferenceScheduler scheduler = new InferenceScheduler(registry, 4, 1, 8, Duration.ofMillis(50), Duration.ofSeconds(2),
+				3, 1, Duration.ofSeconds(15), 500, 4);
+
+		// Status frame straight away, first token 200 ms later: slow for fast mode, so the limit backs off
+		scheduler.schedule(InferenceScheduler.FAST, "alice", InferenceSchedulerTests::statusThenToken, "token"::equals).blockLast();
+		assertEquals(3, scheduler.currentLimit());
+
+		// The same 200 ms is well inside deep mode's target
+		scheduler.schedule(InferenceScheduler.DEEP, "alice", InferenceSchedulerTests::statusThenToken, "token"::equals).blockLast();
+		assertEquals(3, scheduler.currentLimit());
+		for (int i = 0; i < 3; i++) {
+			scheduler.schedule(InferenceScheduler.DEEP, "alice", InferenceSchedulerTests::statusThenToken, "token"::equals).blockLast();
+		}
+		assertEquals(4, scheduler.currentLimit());
+	}
+
+	private InferenceScheduler scheduler(int limit, int perUserLimit, int maxQueued) {
+		return new InferenceScheduler(registry, limit, limit, limit, Duration.ofSeconds(3), Duration.ofSeconds(10),
+				3, 1, Duration.ofSeconds(15), maxQueued, perUserLimit);
+	}
+
+	// Takes a slot and keeps it until the returned sink is completed
+	private static Sinks.Empty<Void> hold(InferenceScheduler scheduler, String mode, String user) {
+		Sinks.Empty<Void> done = Sinks.empty();
+		scheduler.schedule(mode, user, () -> done.asMono().flux()).subscribe();
+		return done;
+	}
+
+	// Notes when the call is granted, then finishes straight away so the next one can go
+	private static void record(InferenceScheduler scheduler, String mode, String user, List<String> order, String label) {
+		scheduler.schedule(mode, user, () -> {
+			order.add(label);
+			return Flux.empty();
+		}).subscribe();
+	}
+
+	private static Flux<String> statusThenToken() {
+		return Flux.concat(Flux.just("status"), Mono.delay(Duration.ofMillis(200)).thenReturn("token"));
+	}
+
+	private double queuedGauge(String mode) {
+		return registry.get("alethiq.scheduler.queued").tag("mode", mode).gauge().value();
+	}
+}
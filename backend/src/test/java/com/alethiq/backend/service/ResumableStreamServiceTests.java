@@ -0,0 +1,178 @@
+package com.alethiq.backend.service;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResumableStreamServiceTests {
+
+	private DisposableServer stub;
+	private CountDownLatch upstreamCancelled;
+	private SimpleMeterRegistry registry;
+	private ResumableStreamService service;
+
+	@BeforeEach
+	void setUp() {
+		upstreamCancelled = new CountDownLatch(1);
+
+		// Local stand-in for the inference service: emits tokens forever until the connection goes away
+		stub = HttpServer.create()
+				.port(0)
+				.route(routes -> routes.post("/query-stream", (req, res) -> res
+						.header("Content-Type", "text/event-stream")
+						.sendString(Flux.interval(Duration.ofMillis(20))
+								.map(i -> "data: {\"answer_chunk\": \"t" + i + "\"}\n\n")
+								.doOnCancel(upstreamCancelled::countDown))))
+				.bindNow();
+
+		registry = new SimpleMeterRegistry();
+		service = service(64);
+	}
+
+	private ResumableStreamService service(int replayCapacity) {
+		InferenceScheduler scheduler = new InferenceScheduler(registry, 8, 2, 64,
+				Duration.ofSeconds(3), Duration.ofSeconds(10), 3, 1, Duration.ofSeconds(15), 500, 4);
+		EventLog eventLog = new EventLog(registry, 1024, "");
+		SemanticCacheService cache = new SemanticCacheService(new HashingEmbeddingFunction(64), null, registry,
+				false, 0.92, 64, 1000, Duration.ofHours(24), System.getProperty("java.io.tmpdir"));
+		AiStreamService ai = new AiStreamService(WebClient.builder(), scheduler, eventLog, cache, "http://localhost:" + stub.port(), Duration.ofMillis(250));
+		StreamJournal journal = new StreamJournal(registry, System.getProperty("java.io.tmpdir") + "/alethiq-journal-test",
+				DataSize.ofMegabytes(1), Duration.ofMillis(200), Duration.ofSeconds(2));
+		return new ResumableStreamService(ai,
+				new InMemoryStreamReplayBuffer(replayCapacity, Duration.ofSeconds(30)),
+				journal,
+				eventLog,
+				registry,
+				Duration.ofMillis(100),
+				Duration.ofSeconds(15),
+				Duration.ofSeconds(1));
+	}
+
+	@AfterEach
+	void tearDown() {
+		stub.disposeNow();
+	}
+
+	@Test
+	void clientDisconnectCancelsUpstream() throws InterruptedException {
+		String streamId = service.start("question", "alice", "fast", null);
+
+		// Read a few events, then walk away like a closed tab
+		service.attach(streamId, 0, "alice").take(3).blockLast(Duration.ofSeconds(5));
+
+		assertTrue(upstreamCancelled.await(5, TimeUnit.SECONDS), "upstream never saw the cancel");
+		assertEquals(1.0, registry.get("alethiq.stream.cancelled").counter().count());
+		// Tokens kept coming every 20 ms during the 100 ms detach timeout
+		assertTrue(registry.get("alethiq.stream.orphaned.tokens").counter().count() > 0);
+
+		// doFinally records after the cancel has gone upstream, so the stub can see it first
+		Timer orphaned = registry.get("alethiq.stream.orphaned.duration").timer();
+		awaitCount(orphaned);
+		assertEquals(1, orphaned.count());
+
+		// The connection itself goes away after the cancel, and that is what gets timed
+		Timer release = registry.get("alethiq.stream.cancel.release").timer();
+		awaitCount(release);
+		assertEquals(1, release.count());
+	}
+
+	@Test
+	void reconnectWithinTimeoutKeepsUpstreamAlive() throws InterruptedException {
+		String streamId = service.start("question", "alice", "fast", null);
+		service.attach(streamId, 0, "alice").take(2).blockLast(Duration.ofSeconds(5));
+
+		// Resume before the detach timeout fires
+		service.attach(streamId, 2, "alice").take(5).blockLast(Duration.ofSeconds(5));
+		assertEquals(0.0, registry.get("alethiq.stream.cancelled").counter().count());
+
+		assertTrue(service.cancel(streamId, "alice"));
+		assertTrue(upstreamCancelled.await(5, TimeUnit.SECONDS), "upstream never saw the cancel");
+	}
+
+	@Test
+	void resumeContinuesRightAfterLastSeenEvent() {
+		String streamId = service.start("question", "alice", "fast", null);
+		List<ServerSentEvent<byte[]>> first = service.attach(streamId, 0, "alice").take(3).collectList().block(Duration.ofSeconds(5));
+		assertEquals(List.of(streamId + ":1", streamId + ":2", streamId + ":3"), ids(first));
+
+		// Tokens keep arriving while we are away; the client comes back with Last-Event-ID "<streamId>:3"
+		ResumableStreamService.Cursor cursor = ResumableStreamService.Cursor.parse(ids(first).get(2));
+		assertTrue(service.canResume(cursor, "alice"));
+		List<ServerSentEvent<byte[]>> resumed = service.attach(cursor.streamId(), cursor.seq(), "alice")
+				.take(3).collectList().block(Duration.ofSeconds(5));
+
+		assertEquals(List.of(streamId + ":4", streamId + ":5", streamId + ":6"), ids(resumed));
+		assertEquals("{\"answer_chunk\": \"t3\"}", new String(resumed.get(0).data(), StandardCharsets.UTF_8));
+		assertTrue(service.cancel(streamId, "alice"));
+	}
+
+	@Test
+	void replayBufferTailSkipsEverythingUpToTheCursor() {
+		InMemoryStreamReplayBuffer buffer = new InMemoryStreamReplayBuffer(4, Duration.ofSeconds(30));
+		buffer.open("s");
+		for (int i = 0; i < 6; i++) buffer.append("s", StreamEvent.token("t" + i));
+		buffer.complete("s");
+
+		// Capacity 4: events 1-2 have been evicted, 3-4 were seen, 5-6 are new
+		List<Long> seqs = buffer.tail("s", 4).map(StreamReplayBuffer.Event::seq).collectList().block(Duration.ofSeconds(5));
+		assertEquals(List.of(5L, 6L), seqs);
+		assertEquals(List.of(3L, 4L, 5L, 6L), buffer.tail("s", 2).map(StreamReplayBuffer.Event::seq).collectList().block(Duration.ofSeconds(5)));
+		assertEquals(List.of(), buffer.tail("s", 6).map(StreamReplayBuffer.Event::seq).collectList().block(Duration.ofSeconds(5)));
+	}
+
+	@Test
+	void replayBufferTailFailsWhenTheNextEventWasEvicted() {
+		InMemoryStreamReplayBuffer buffer = new InMemoryStreamReplayBuffer(4, Duration.ofSeconds(30));
+		buffer.open("s");
+		for (int i = 0; i < 6; i++) buffer.append("s", StreamEvent.token("t" + i));
+		buffer.complete("s");
+
+		// Event 2 is gone: replaying 3-6 after 1 would silently drop a token from the answer
+		assertThrows(StreamReplayBuffer.EvictedException.class, () -> buffer.tail("s", 1).blockLast(Duration.ofSeconds(5)));
+		assertThrows(StreamReplayBuffer.EvictedException.class, () -> buffer.tail("s", 0).blockLast(Duration.ofSeconds(5)));
+	}
+
+	@Test
+	void resumeBehindTheReplayBufferGetsAReset() throws InterruptedException {
+		ResumableStreamService small = service(2);
+		String streamId = small.start("question", "alice", "fast", null);
+		small.attach(streamId, 0, "alice").take(1).blockLast(Duration.ofSeconds(5));
+
+		// Away long enough for more than 2 tokens to arrive (and the stream to be cancelled)
+		assertTrue(upstreamCancelled.await(5, TimeUnit.SECONDS), "upstream never saw the cancel");
+		List<ServerSentEvent<byte[]>> resumed = small.attach(streamId, 1, "alice").collectList().block(Duration.ofSeconds(5));
+
+		assertEquals(1, resumed.size());
+		assertEquals(ResumableStreamService.RESET_EVENT, resumed.get(0).event());
+		assertNull(resumed.get(0).id());
+		assertEquals(1.0, registry.get("alethiq.stream.resume.reset").counter().count());
+	}
+
+	private static void awaitCount(Timer timer) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (timer.count() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+	}
+
+	private static List<String> ids(List<ServerSentEvent<byte[]>> events) {
+		return events.stream().map(ServerSentEvent::id).toList();
+	}
+}
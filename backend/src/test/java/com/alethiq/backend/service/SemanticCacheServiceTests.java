@@ -0,0 +1,63 @@
+package com.alethiq.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SemanticCacheServiceTests {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void snapshotReloadsEveryAnswerItIndexed() {
+		SemanticCacheService first = cache(Duration.ofHours(1));
+		first.put("what is the capital of france", InferenceScheduler.FAST, "Paris");
+		first.put("how tall is mount everest", InferenceScheduler.FAST, "8849 m");
+		first.snapshot();
+
+		SemanticCacheService second = cache(Duration.ofHours(1));
+		second.load();
+		assertEquals(Optional.of("Paris"), second.lookup("What is the capital of France?", InferenceScheduler.FAST));
+		assertEquals(Optional.of("8849 m"), second.lookup("how tall is mount everest", InferenceScheduler.FAST));
+		assertEquals(Optional.empty(), second.lookup("how tall is mount everest", InferenceScheduler.DEEP));
+
+		// New answers after a reload get numbers of their own
+		second.put("who wrote hamlet", InferenceScheduler.FAST, "Shakespeare");
+		assertEquals(Optional.of("Shakespeare"), second.lookup("who wrote hamlet", InferenceScheduler.FAST));
+		assertEquals(Optional.of("Paris"), second.lookup("what is the capital of france", InferenceScheduler.FAST));
+	}
+
+	@Test
+	void expiredAnswersAreNotServedAndGetCompactedAway() throws Exception {
+		SemanticCacheService cache = cache(Duration.ofMillis(500));
+		cache.put("what is the capital of france", InferenceScheduler.FAST, "Paris");
+		cache.put("how tall is mount everest", InferenceScheduler.FAST, "8849 m");
+		cache.put("who wrote hamlet", InferenceScheduler.FAST, "Shakespeare");
+		assertEquals(Optional.of("Paris"), cache.lookup("what is the capital of france", InferenceScheduler.FAST));
+
+		Thread.sleep(600);
+		assertEquals(Optional.empty(), cache.lookup("what is the capital of france", InferenceScheduler.FAST));
+
+		// Expired, so the same question can be cached again; 1 of 4 live, so the snapshot rebuilds the index
+		cache.put("what is the capital of france", InferenceScheduler.FAST, "Paris, still");
+		cache.snapshot();
+		assertEquals(Optional.of("Paris, still"), cache.lookup("what is the capital of france", InferenceScheduler.FAST));
+		assertEquals(Optional.empty(), cache.lookup("who wrote hamlet", InferenceScheduler.FAST));
+
+		SemanticCacheService reloaded = cache(Duration.ofMillis(500));
+		reloaded.load();
+		assertEquals(Optional.of("Paris, still"), reloaded.lookup("what is the capital of france", InferenceScheduler.FAST));
+	}
+
+	private SemanticCacheService cache(Duration ttl) {
+		return new SemanticCacheService(new HashingEmbeddingFunction(64), null, new SimpleMeterRegistry(),
+				true, 0.92, 64, 1000, ttl, dir.toString());
+	}
+}
@@ -0,0 +1,66 @@
+package com.alethiq.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamJournalTests {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void unfinishedStreamsSurviveRestartWithTheirText() throws Exception {
+		StreamJournal first = journal();
+		first.start();
+		StreamJournal.Handle open = first.begin("s1", "alice", "fast", "question", "65f1c2a9e4b0a1b2c3d4e5f6");
+		open.record(StreamEvent.token("Hel"));
+		open.record(StreamEvent.status("Searching..."));
+		open.record(StreamEvent.token("lo"));
+		first.begin("s2", "bob", "deep", "other", null).end();
+		first.stop(); // Process goes away with s1 still running
+
+		StreamJournal second = journal();
+		second.start();
+		List<StreamJournal.Unfinished> unfinished = second.unfinished();
+		assertEquals(1, unfinished.size());
+		assertEquals(new StreamJournal.Unfinished("s1", "alice", "fast", "question", "65f1c2a9e4b0a1b2c3d4e5f6", "Hello"), unfinished.get(0));
+
+		// Once recovery has dealt with it, it is gone for good
+		second.resolve("s1");
+		second.stop();
+		StreamJournal third = journal();
+		third.start();
+		assertTrue(third.unfinished().isEmpty());
+		third.stop();
+	}
+
+	@Test
+	void replacementRestartsTheAnswer() throws Exception {
+		StreamJournal first = journal();
+		first.start();
+		StreamJournal.Handle open = first.begin("s1", "alice", "speculative", "question", null);
+		open.record(StreamEvent.token("quick"));
+		open.record(StreamEvent.replace("thorough"));
+		open.record(StreamEvent.token("!"));
+		first.stop();
+
+		StreamJournal second = journal();
+		second.start();
+		assertEquals("thorough!", second.unfinished().get(0).partialAnswer());
+		second.stop();
+	}
+
+	private StreamJournal journal() {
+		return new StreamJournal(new SimpleMeterRegistry(), dir.toString(), DataSize.ofKilobytes(64),
+				Duration.ofMillis(50), Duration.ZERO);
+	}
+}
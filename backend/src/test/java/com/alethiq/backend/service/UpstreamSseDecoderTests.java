@@ -0,0 +1,65 @@
+package com.alethiq.backend.service;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UpstreamSseDecoderTests {
+
+	private final NettyDataBufferFactory factory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+	@Test
+	void decodesFramesSplitAcrossBuffers() {
+		List<StreamEvent> events = UpstreamSseDecoder.decode(Flux.just(
+						buffer("data: {\"status\": \"Thinking...\"}\n\ndata: {\"answer_"),
+						buffer("chunk\": \"Hel\"}\r\n\r\ndata: {\"sources\": []}\n"),
+						buffer("\ndata: [DONE]\n\n")))
+				.collectList()
+				.block();
+
+		assertEquals(4, events.size());
+		assertEquals(StreamEvent.Type.STATUS, events.get(0).type());
+		assertEquals(StreamEvent.Type.TOKEN, events.get(1).type());
+		assertEquals("Hel", events.get(1).token());
+		assertEquals(StreamEvent.Type.SOURCES, events.get(2).type());
+		assertEquals(StreamEvent.Type.DONE, events.get(3).type());
+	}
+
+	@Test
+	void flushesTrailingFrameWithoutBlankLine() {
+		List<StreamEvent> events = UpstreamSseDecoder.decode(Flux.just(buffer("data: {\"error\": \"boom\"}")))
+				.collectList()
+				.block();
+
+		assertEquals(1, events.size());
+		assertEquals(StreamEvent.Type.ERROR, events.get(0).type());
+		assertEquals("{\"error\": \"boom\"}", events.get(0).text());
+	}
+
+	@Test
+	void releasesEveryBufferWhenCancelled() {
+		List<ByteBuf> sent = new ArrayList<>();
+		Flux<DataBuffer> body = Flux.range(0, 50)
+				.map(i -> buffer("data: {\"answer_chunk\": \"t" + i + "\"}\n\n"))
+				.doOnNext(b -> sent.add(NettyDataBufferFactory.toByteBuf(b)));
+
+		UpstreamSseDecoder.decode(body).take(3).blockLast();
+
+		for (ByteBuf b : sent) {
+			assertEquals(0, b.refCnt());
+		}
+	}
+
+	private DataBuffer buffer(String s) {
+		return factory.wrap(PooledByteBufAllocator.DEFAULT.buffer().writeBytes(s.getBytes(StandardCharsets.UTF_8)));
+	}
+}